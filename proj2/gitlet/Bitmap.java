@@ -0,0 +1,331 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 压缩的整数集合，结构与 Roaring bitmap 相同。
+ * <p>
+ * 非负整数按高 16 位分组，每组一个容器，容器按组号排序:
+ * 元素不超过 4096 个的组用有序的 char 数组保存低 16 位，
+ * 更多的组用 65536 位的位图保存。
+ * 稀疏的集合只占用与元素个数成正比的空间，稠密的集合每个元素只占一位，
+ * 求并集和差集时按容器逐个合并。
+ *
+ * @author SouvLithe
+ */
+public class Bitmap {
+    /**
+     * 数组容器的最大元素个数，超过时转成位图容器
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    private static final int WORDS = 1 << 10;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    /**
+     * 一组元素的低 16 位: ARRAY 和 BITS 中恰好有一个不为 null
+     */
+    private static final class Container {
+        char[] array;
+        long[] bits;
+        int cardinality;
+
+        static Container ofArray(char[] array, int cardinality) {
+            Container c = new Container();
+            c.array = array;
+            c.cardinality = cardinality;
+            return c;
+        }
+
+        static Container ofBits(long[] bits, int cardinality) {
+            Container c = new Container();
+            c.bits = bits;
+            c.cardinality = cardinality;
+            return c;
+        }
+
+        Container copy() {
+            return bits != null ? ofBits(bits.clone(), cardinality)
+                    : ofArray(Arrays.copyOf(array, cardinality), cardinality);
+        }
+
+        boolean contains(char v) {
+            if (bits != null) {
+                return (bits[v >>> 6] & (1L << v)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, v) >= 0;
+        }
+
+        void add(char v) {
+            if (bits != null) {
+                long before = bits[v >>> 6];
+                bits[v >>> 6] |= 1L << v;
+                if (before != bits[v >>> 6]) {
+                    cardinality++;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, v);
+            if (i >= 0) {
+                return;
+            }
+            if (cardinality == ARRAY_MAX) {
+                toBits();
+                add(v);
+                return;
+            }
+            i = -i - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2 + 4));
+            }
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = v;
+            cardinality++;
+        }
+
+        private void toBits() {
+            long[] b = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                b[array[i] >>> 6] |= 1L << array[i];
+            }
+            bits = b;
+            array = null;
+        }
+
+        private void toArray() {
+            char[] a = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    a[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                }
+            }
+            array = a;
+            bits = null;
+        }
+
+        void or(Container o) {
+            if (bits == null && o.bits == null && cardinality + o.cardinality <= ARRAY_MAX) {
+                char[] merged = new char[cardinality + o.cardinality];
+                int i = 0;
+                int j = 0;
+                int n = 0;
+                while (i < cardinality || j < o.cardinality) {
+                    if (j == o.cardinality || i < cardinality && array[i] < o.array[j]) {
+                        merged[n++] = array[i++];
+                    } else if (i == cardinality || o.array[j] < array[i]) {
+                        merged[n++] = o.array[j++];
+                    } else {
+                        merged[n++] = array[i++];
+                        j++;
+                    }
+                }
+                array = merged;
+                cardinality = n;
+                return;
+            }
+            if (bits == null) {
+                toBits();
+            }
+            if (o.bits != null) {
+                int n = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] |= o.bits[w];
+                    n += Long.bitCount(bits[w]);
+                }
+                cardinality = n;
+            } else {
+                for (int i = 0; i < o.cardinality; i++) {
+                    add(o.array[i]);
+                }
+            }
+        }
+
+        /**
+         * @return 本容器中不在 O 中的元素，为空时返回 null
+         */
+        Container andNot(Container o) {
+            Container ret;
+            if (bits != null) {
+                long[] b = bits.clone();
+                if (o.bits != null) {
+                    for (int w = 0; w < WORDS; w++) {
+                        b[w] &= ~o.bits[w];
+                    }
+                } else {
+                    for (int i = 0; i < o.cardinality; i++) {
+                        b[o.array[i] >>> 6] &= ~(1L << o.array[i]);
+                    }
+                }
+                int n = 0;
+                for (long word : b) {
+                    n += Long.bitCount(word);
+                }
+                ret = ofBits(b, n);
+                if (n <= ARRAY_MAX) {
+                    ret.toArray();
+                }
+            } else {
+                char[] a = new char[cardinality];
+                int n = 0;
+                for (int i = 0; i < cardinality; i++) {
+                    if (!o.contains(array[i])) {
+                        a[n++] = array[i];
+                    }
+                }
+                ret = ofArray(a, n);
+            }
+            return ret.cardinality == 0 ? null : ret;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    action.accept(high | (w * 64 + Long.numberOfTrailingZeros(word)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 组号 KEY 的容器下标，不存在时返回 -(插入位置) - 1
+     */
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int i, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = c;
+        size++;
+    }
+
+    public void add(int x) {
+        char key = (char) (x >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, key, Container.ofArray(new char[4], 0));
+        }
+        containers[i].add((char) x);
+    }
+
+    public boolean contains(int x) {
+        int i = find((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    /**
+     * 把 OTHER 中的元素加入本集合，OTHER 不变
+     */
+    public void or(Bitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int i = find(other.keys[j]);
+            if (i >= 0) {
+                containers[i].or(other.containers[j]);
+            } else {
+                insert(-i - 1, other.keys[j], other.containers[j].copy());
+            }
+        }
+    }
+
+    /**
+     * @return 在本集合中但不在 OTHER 中的元素
+     */
+    public Bitmap andNot(Bitmap other) {
+        Bitmap ret = new Bitmap();
+        for (int i = 0; i < size; i++) {
+            int j = other.find(keys[i]);
+            Container c = j < 0 ? containers[i].copy() : containers[i].andNot(other.containers[j]);
+            if (c != null) {
+                ret.insert(ret.size, keys[i], c);
+            }
+        }
+        return ret;
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            n += containers[i].cardinality;
+        }
+        return n;
+    }
+
+    /**
+     * 按从小到大的顺序遍历元素
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * 容器个数 | (组号 | 元素个数 | 数组或位图)*
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container c = containers[i];
+            if (c.bits != null && c.cardinality <= ARRAY_MAX) {
+                c.toArray();
+            }
+            out.writeChar(keys[i]);
+            out.writeInt(c.cardinality);
+            if (c.bits != null) {
+                for (long word : c.bits) {
+                    out.writeLong(word);
+                }
+            } else {
+                for (int k = 0; k < c.cardinality; k++) {
+                    out.writeChar(c.array[k]);
+                }
+            }
+        }
+    }
+
+    public static Bitmap read(DataInput in) throws IOException {
+        Bitmap ret = new Bitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            char key = in.readChar();
+            int cardinality = in.readInt();
+            Container c;
+            if (cardinality > ARRAY_MAX) {
+                long[] bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    bits[w] = in.readLong();
+                }
+                c = Container.ofBits(bits, cardinality);
+            } else {
+                char[] array = new char[cardinality];
+                for (int k = 0; k < cardinality; k++) {
+                    array[k] = in.readChar();
+                }
+                c = Container.ofArray(array, cardinality);
+            }
+            ret.insert(ret.size, key, c);
+        }
+        return ret;
+    }
+}
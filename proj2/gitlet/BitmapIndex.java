@@ -0,0 +1,361 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * 可达性位图，保存在 commit 图旁边的 objects/info/bitmaps 中。
+ * <p>
+ * "GBIX" | version | 对象个数 | (类型 | id(20))* | 位图个数 | (commit 的位置 | Bitmap)*
+ * <p>
+ * 对象表给每个 commit、tree 和 blob 一个位置，按 commit 图的拓扑序编号；
+ * 选中的 commit（每 SPAN 个 commit 一个，以及生成时的所有分支）记录一个位图，
+ * 表示从它出发可达的所有对象的位置。
+ * 一个 tree 在位图中时，它引用的所有对象也都在位图中，遍历时不必再展开它。
+ * 求某些 commit 的可达对象时，沿 commit 图向下走到带位图的 commit 为止，
+ * 把它们的位图并起来；"从 A 可达但从 B 不可达的对象" 就是两个位图的差集。
+ * <p>
+ * 位图在 repack 和 gc 时重新生成，之后新增的对象不在对象表中，
+ * 遍历时逐个读取 commit 对象，作为额外的 id 返回。
+ *
+ * @author SouvLithe
+ */
+public class BitmapIndex {
+    private static final int MAGIC = 0x47424958;
+    private static final int VERSION = 1;
+
+    /**
+     * 每隔多少个 commit 选一个记录位图
+     */
+    private static final int SPAN = 64;
+
+    private static final Map<File, BitmapIndex> INDEXES = new HashMap<>();
+
+    private final File gitletDir;
+    private final File file;
+    private long loadedModified = -1;
+    private long loadedLength = -1;
+
+    private String[] ids = new String[0];
+    private boolean[] isCommit = new boolean[0];
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<Integer, Bitmap> bitmaps = new HashMap<>();
+
+    /**
+     * 一组 commit 的可达对象: 对象表中的部分用位图表示，其余的是 id
+     */
+    public final class Reach {
+        private final Bitmap bits = new Bitmap();
+        private final Set<String> commits = new LinkedHashSet<>();
+        private final Set<String> objects = new LinkedHashSet<>();
+
+        private void addCommit(String id) {
+            Integer p = positions.get(id);
+            if (p != null) {
+                bits.add(p);
+            } else {
+                commits.add(id);
+            }
+        }
+
+        private void addObject(String id) {
+            Integer p = positions.get(id);
+            if (p != null) {
+                bits.add(p);
+            } else {
+                objects.add(id);
+            }
+        }
+
+        /**
+         * 第一次遇到 tree ID 时加入集合并返回 true
+         */
+        private boolean enterTree(String id) {
+            Integer p = positions.get(id);
+            if (p != null ? bits.contains(p) : objects.contains(id)) {
+                return false;
+            }
+            addObject(id);
+            return true;
+        }
+
+        private boolean containsCommit(String id) {
+            Integer p = positions.get(id);
+            return p != null ? bits.contains(p) : commits.contains(id);
+        }
+
+        /**
+         * @return 在本集合中但不在 OTHER 中的 commit
+         */
+        public List<String> commitsNotIn(Reach other) {
+            return collect(other, true);
+        }
+
+        /**
+         * @return 在本集合中但不在 OTHER 中的 tree 和 blob
+         */
+        public List<String> objectsNotIn(Reach other) {
+            return collect(other, false);
+        }
+
+        /**
+         * @return 本集合中的所有 commit
+         */
+        public List<String> commits() {
+            return collect(null, true);
+        }
+
+        /**
+         * @return 本集合中的所有 tree 和 blob
+         */
+        public List<String> objects() {
+            return collect(null, false);
+        }
+
+        private List<String> collect(Reach other, boolean commit) {
+            List<String> ret = new ArrayList<>();
+            Bitmap diff = other == null ? bits : bits.andNot(other.bits);
+            diff.forEach(p -> {
+                if (isCommit[p] == commit) {
+                    ret.add(ids[p]);
+                }
+            });
+            for (String id : commit ? commits : objects) {
+                if (other == null || !(commit ? other.commits : other.objects).contains(id)) {
+                    ret.add(id);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private BitmapIndex(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = join(gitletDir, "objects", "info", "bitmaps");
+    }
+
+    /**
+     * @return 给定 .gitlet 目录的位图索引，文件变化后重新读取
+     */
+    public static synchronized BitmapIndex of(File gitletDir) {
+        BitmapIndex ret = INDEXES.computeIfAbsent(gitletDir.getAbsoluteFile(), BitmapIndex::new);
+        ret.refresh();
+        return ret;
+    }
+
+    public static BitmapIndex local() {
+        return of(Repository.GITLET_DIR);
+    }
+
+    private void refresh() {
+        if (file.lastModified() == loadedModified && file.length() == loadedLength) {
+            return;
+        }
+        loadedModified = file.lastModified();
+        loadedLength = file.length();
+        ids = new String[0];
+        isCommit = new boolean[0];
+        positions.clear();
+        bitmaps.clear();
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupt bitmap index.");
+            }
+            int n = in.readInt();
+            ids = new String[n];
+            isCommit = new boolean[n];
+            byte[] id = new byte[20];
+            for (int i = 0; i < n; i++) {
+                isCommit[i] = in.readByte() == Codec.COMMIT;
+                in.readFully(id);
+                ids[i] = bytesToHex(id);
+                positions.put(ids[i], i);
+            }
+            int m = in.readInt();
+            for (int i = 0; i < m; i++) {
+                int position = in.readInt();
+                bitmaps.put(position, Bitmap.read(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return 是否还没有生成过位图
+     */
+    public boolean isEmpty() {
+        return bitmaps.isEmpty();
+    }
+
+    /**
+     * @return 从 COMMITS 出发可达的所有 commit、tree 和 blob
+     */
+    public Reach reach(Collection<String> commits) {
+        return reach(commits, id -> false);
+    }
+
+    /**
+     * @return 从 COMMITS 出发可达的对象，遍历时不进入满足 STOP 的 commit。
+     * 带位图的 commit 直接并入它的位图，位图中可能含有 STOP 之下的对象。
+     */
+    public Reach reach(Collection<String> commits, Predicate<String> stop) {
+        CommitGraph graph = CommitGraph.of(gitletDir);
+        File objectsDir = join(gitletDir, "objects");
+        Reach ret = new Reach();
+        Deque<String> stack = new ArrayDeque<>();
+        commits.forEach(stack::push);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (id == null || id.isEmpty() || ret.containsCommit(id) || stop.test(id)) {
+                continue;
+            }
+            Integer p = positions.get(id);
+            if (p != null && bitmaps.containsKey(p)) {
+                ret.bits.or(bitmaps.get(p));
+                continue;
+            }
+            ret.addCommit(id);
+            HelperMethods.toCommit(id, objectsDir).forEachObject(objectsDir, ret::enterTree,
+                    ret::addObject);
+            int i = graph.require(id);
+            if (graph.secondParent(i) >= 0) {
+                stack.push(graph.idAt(graph.secondParent(i)));
+            }
+            if (graph.parent(i) >= 0) {
+                stack.push(graph.idAt(graph.parent(i)));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 按当前的 commit 图重新生成位图索引，TIPS 中的 commit 一定带有位图
+     */
+    public static void write(File gitletDir, Collection<String> tips) {
+        CommitGraph graph = CommitGraph.of(gitletDir);
+        File objectsDir = join(gitletDir, "objects");
+        int n = graph.size();
+        List<String> table = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        Map<String, Integer> pos = new HashMap<>();
+        int[] commitPos = new int[n];
+        for (int i = 0; i < n; i++) {
+            String id = graph.idAt(i);
+            commitPos[i] = table.size();
+            pos.put(id, table.size());
+            table.add(id);
+            types.add(Codec.COMMIT);
+            HelperMethods.toCommit(id, objectsDir).forEachObject(objectsDir, tree -> {
+                if (pos.containsKey(tree)) {
+                    return false;
+                }
+                pos.put(tree, table.size());
+                table.add(tree);
+                types.add(Codec.TREE);
+                return true;
+            }, blob -> {
+                if (!pos.containsKey(blob)) {
+                    pos.put(blob, table.size());
+                    table.add(blob);
+                    types.add(Codec.BLOB);
+                }
+            });
+        }
+
+        boolean[] selected = new boolean[n];
+        for (int i = SPAN - 1; i < n; i += SPAN) {
+            selected[i] = true;
+        }
+        for (String tip : tips) {
+            int i = graph.indexOf(tip);
+            if (i >= 0) {
+                selected[i] = true;
+            }
+        }
+        Map<Integer, Bitmap> built = new HashMap<>();
+        int[] visited = new int[n];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            if (!selected[i]) {
+                continue;
+            }
+            Bitmap bits = new Bitmap();
+            stack.push(i);
+            while (!stack.isEmpty()) {
+                int c = stack.pop();
+                if (c < 0 || visited[c] == i + 1 || bits.contains(commitPos[c])) {
+                    continue;
+                }
+                visited[c] = i + 1;
+                if (c != i && built.containsKey(commitPos[c])) {
+                    bits.or(built.get(commitPos[c]));
+                    continue;
+                }
+                bits.add(commitPos[c]);
+                HelperMethods.toCommit(graph.idAt(c), objectsDir).forEachObject(objectsDir,
+                        tree -> {
+                            if (bits.contains(pos.get(tree))) {
+                                return false;
+                            }
+                            bits.add(pos.get(tree));
+                            return true;
+                        }, blob -> bits.add(pos.get(blob)));
+                stack.push(graph.secondParent(c));
+                stack.push(graph.parent(c));
+            }
+            built.put(commitPos[i], bits);
+        }
+
+        File target = join(objectsDir, "info", "bitmaps");
+        target.getParentFile().mkdirs();
+        File tmp = join(objectsDir, "info", "bitmaps.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(table.size());
+            for (int i = 0; i < table.size(); i++) {
+                out.writeByte(types.get(i));
+                out.write(hexToBytes(table.get(i)));
+            }
+            out.writeInt(built.size());
+            for (Map.Entry<Integer, Bitmap> e : built.entrySet()) {
+                out.writeInt(e.getKey());
+                e.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -2,57 +2,311 @@ package gitlet;
 
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 // 在频繁使用某个类的静态方法时使用这个东西
 import static gitlet.Utils.*;
 
 /**
  * 表示一个对于gitlet commit对象的 blob 对象
+ * <p>
+ * blob 的内容是文件的原始字节。
+ * 新建 blob 时只记下文件并流式计算 SHA-1，写入对象库和检出时
+ * 都通过 FileChannel 直接拷贝，文件内容不会整个读进内存。
+ * 大文件切块保存，blob id 对应的是它的清单，见 ChunkedBlob。
  *
  * @author SouvLithe
  */
-public class Blob implements Serializable {
+public class Blob implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = 2534371035374066244L;
+
+    /**
+     * 旧版本以 String 保存内容，java 反序列化旧对象时按这里的字段读取
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("content", String.class),
+        new ObjectStreamField("uid", String.class),
+    };
+
+    /**
+     * blob 头部的最大长度: MAGIC | 类型 | 版本 | uid | varint(length)
+     */
+    private static final int MAX_HEADER = 3 + 20 + 10;
 
     /**
      * 该文件 blob 内容所指向的内容。
+     * 由文件新建的 blob 在需要时才读取。
      */
-    private final String content;
+    private byte[] content;
 
     /**
      * blob对象的 SHA-1 id
      */
-    private final String uid;
+    private String uid;
+
+    /**
+     * 新建 blob 时对应的工作区文件
+     */
+    private transient File file;
 
     /**
      * 使用文件实例化一个 blob 对象。
      * blob 指的是对已跟踪文件的快照。
      */
     public Blob(File file) {
-        this.content = readContentsAsString(file);
-        this.uid = getBlobName(file);
+        this(file, getBlobName(file));
+    }
+
+    /**
+     * 使用文件和已经算好的 blob id 实例化一个 blob 对象
+     */
+    public Blob(File file, String uid) {
+        this.file = file;
+        this.uid = uid;
+    }
+
+    private Blob(byte[] content, String uid) {
+        this.content = content;
+        this.uid = uid;
     }
 
     /**
      * 使用文件内容和文件名创建 Blob 标识。
+     * 文件内容通过 FileChannel 分块送进摘要。
      *
      * @return The blob SHA-1 id
      */
     public static String getBlobName(File file) {
-        return sha1(readContentsAsString(file) + file.getName());
+        return sha1(file, file.getName());
     }
 
     /**
-     * 将 Blob 写入对象形式并保存至 TEMP_DIR 目录。
+     * 将 Blob 写入对象库。
+     * 对象头写完之后，文件内容由 FileChannel 直接拷贝过去；大文件切块保存。
      *
      * @return 一个 40 位长度的唯一标识符的二进制数据块
      */
     public String makeBlob() {
-        File out = Repository.makeObjectDir(this.uid);
-        writeObject(out, this);
+        ObjectStore store = ObjectStore.local();
+        if (store.contains(this.uid)) {
+            return this.uid;
+        }
+        if (file == null) {
+            store.write(this.uid, Codec.encode(this));
+        } else if (ChunkedBlob.shouldChunk(file.length())) {
+            ChunkedBlob.write(file, this.uid, store);
+        } else {
+            long length = file.length();
+            store.write(this.uid, header(this.uid, length), file, 0, length);
+        }
         return this.uid;
     }
 
-    public String getContent() {
+    /**
+     * @return id 为 UID 的 blob 对象的头部，后面紧跟 LENGTH 字节的内容
+     */
+    public static byte[] header(String uid, long length) {
+        Codec.Writer out = new Codec.Writer();
+        out.writeByte(Codec.MAGIC);
+        out.writeByte(Codec.BLOB);
+        out.writeByte(Codec.VERSION);
+        out.writeId(uid);
+        out.writeVarint(length);
+        return out.toByteArray();
+    }
+
+    /**
+     * 把 id 为 BLOBID 的 blob 的内容写入 TARGET。
+     * 内容从对象库所在的文件（松散对象或 pack）中直接 transferTo 到目标文件，
+     * 压缩过的 blob 边读边解压，分块保存的 blob 按顺序逐块写入。
+     */
+    public static void writeTo(String blobId, File target) {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copy(blobId, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void copy(String blobId, FileChannel out) throws IOException {
+        ObjectStore.Slice slice = locate(blobId);
+        try (FileChannel in = FileChannel.open(slice.file().toPath())) {
+            boolean compressed = isCompressed(in, slice);
+            byte[] head = head(in, slice, compressed);
+            if (Codec.typeOf(head) == Codec.CHUNKED) {
+                for (String chunk : ChunkedBlob.read(blobId, Repository.OBJECTS_DIR).chunks()) {
+                    copy(chunk, out);
+                }
+                return;
+            }
+            long[] range = contentRange(head);
+            if (range == null) {
+                write(out, ByteBuffer.wrap(HelperMethods.toBlob(blobId).getContent()));
+                return;
+            }
+            if (compressed) {
+                try (InputStream data = Compression.open(in, slice)) {
+                    data.skipNBytes(range[0]);
+                    byte[] buf = new byte[1 << 16];
+                    for (long left = range[1]; left > 0; ) {
+                        int n = data.read(buf, 0, (int) Math.min(buf.length, left));
+                        if (n < 0) {
+                            throw error("Corrupt blob %s.", blobId);
+                        }
+                        write(out, ByteBuffer.wrap(buf, 0, n));
+                        left -= n;
+                    }
+                }
+                return;
+            }
+            long done = 0;
+            while (done < range[1]) {
+                done += in.transferTo(slice.offset() + range[0] + done, range[1] - done, out);
+            }
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /**
+     * 把 id 为 BLOBID 的 blob 的内容映射到内存，供 diff 按行读取。
+     * 旧格式的 blob 先解码、压缩过的 blob 先解压再包装成 ByteBuffer，
+     * 分块保存的 blob 拼接成一个 ByteBuffer。
+     */
+    public static ByteBuffer map(String blobId) {
+        ObjectStore.Slice slice = locate(blobId);
+        try (FileChannel in = FileChannel.open(slice.file().toPath())) {
+            boolean compressed = isCompressed(in, slice);
+            byte[] head = head(in, slice, compressed);
+            if (Codec.typeOf(head) == Codec.CHUNKED) {
+                ChunkedBlob chunked = ChunkedBlob.read(blobId, Repository.OBJECTS_DIR);
+                if (chunked.length() > Integer.MAX_VALUE) {
+                    throw error("Blob %s is too large to read into memory.", blobId);
+                }
+                ByteBuffer ret = ByteBuffer.allocate((int) chunked.length());
+                for (String chunk : chunked.chunks()) {
+                    ret.put(map(chunk));
+                }
+                return ret.flip();
+            }
+            long[] range = contentRange(head);
+            if (range == null) {
+                return ByteBuffer.wrap(HelperMethods.toBlob(blobId).getContent());
+            }
+            if (compressed) {
+                byte[] data = ObjectStore.local().read(blobId);
+                return ByteBuffer.wrap(data, (int) range[0], (int) range[1]).slice();
+            }
+            return in.map(FileChannel.MapMode.READ_ONLY, slice.offset() + range[0], range[1]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return id 为 BLOBID 的 blob 的全部内容
+     */
+    public static byte[] read(String blobId) {
+        ByteBuffer buf = map(blobId);
+        byte[] ret = new byte[buf.remaining()];
+        buf.get(ret);
+        return ret;
+    }
+
+    private static ObjectStore.Slice locate(String blobId) {
+        ObjectStore.Slice slice = ObjectStore.local().locate(blobId);
+        if (slice == null) {
+            throw error("Missing blob %s.", blobId);
+        }
+        return slice;
+    }
+
+    /**
+     * @return 对象在磁盘上是否是压缩过的
+     */
+    private static boolean isCompressed(FileChannel in, ObjectStore.Slice slice)
+            throws IOException {
+        ByteBuffer first = ByteBuffer.allocate(1);
+        in.read(first, slice.offset());
+        return first.position() == 1 && Compression.isCompressed(first.get(0) & 0xff);
+    }
+
+    /**
+     * @return 对象的头部（解压之后），最多 MAX_HEADER 个字节
+     */
+    private static byte[] head(FileChannel in, ObjectStore.Slice slice, boolean compressed)
+            throws IOException {
+        if (compressed) {
+            try (InputStream data = Compression.open(in, slice)) {
+                return data.readNBytes(MAX_HEADER);
+            }
+        }
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(MAX_HEADER, slice.length()));
+        in.read(head, slice.offset());
+        return head.array();
+    }
+
+    /**
+     * @return blob 内容在（解压之后的）对象中的位置和长度，旧格式的 blob 返回 null
+     */
+    private static long[] contentRange(byte[] bytes) {
+        if (Codec.isLegacy(bytes)) {
+            return null;
+        }
+        Codec.Reader r = new Codec.Reader(bytes, 3);
+        r.readId();
+        long length = r.readVarlong();
+        return new long[]{r.position(), length};
+    }
+
+    /**
+     * @return blob 内容的原始字节
+     */
+    public byte[] getContent() {
+        if (content == null && file != null) {
+            return readContents(file);
+        }
         return content;
     }
+
+    @Override
+    public int type() {
+        return Codec.BLOB;
+    }
+
+    /**
+     * uid | content
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writeId(uid);
+        out.writeBytes(getContent());
+    }
+
+    static Blob decode(Codec.Reader in) {
+        String id = in.readId();
+        return new Blob(in.readBytes(), id);
+    }
+
+    /**
+     * 读取旧版本的 blob，其内容是一个 String
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        String text = (String) fields.get("content", null);
+        this.content = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+        this.uid = (String) fields.get("uid", null);
+    }
 }
@@ -2,6 +2,7 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 import static gitlet.Repository.BRANCHES_DIR;
@@ -12,7 +13,9 @@ import static gitlet.Utils.join;
  *
  * @author SouvLithe
  */
-public class Branch implements Serializable {
+public class Branch implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = 5849842368206684836L;
+
     /**
      * 分支的名字,如 master 这种
      */
@@ -28,7 +31,11 @@ public class Branch implements Serializable {
      * 若存在同名的分支，则退出操作。
      */
     public Branch(String name, String head) {
-        if (isExists(name)) {
+        this(name, head, true);
+    }
+
+    private Branch(String name, String head, boolean checkExists) {
+        if (checkExists && isExists(name)) {
             HelperMethods.exit("A branch with that name already exists.");
         }
         this.name = name;
@@ -52,11 +59,11 @@ public class Branch implements Serializable {
     public void updateBranch() {
         // readObject    从文件中读取类型为 T 的对象，并将其强制转换为 EXPECTEDCLASS 类型。
         // 若出现问题，则抛出 IllegalArgumentException 异常。
-        this.HEAD = Utils.readObject(Repository.HEAD, Branch.class).getHEADAsString();
+        this.HEAD = Codec.readObject(Repository.HEAD, Branch.class).getHEADAsString();
         String n = this.name;
         n = correctName(n);
         File h = join(BRANCHES_DIR, n);
-        Utils.writeObject(h, this);
+        Codec.writeObject(h, this);
     }
 
     public static String correctName(String name) {
@@ -74,7 +81,19 @@ public class Branch implements Serializable {
     public static Branch readBranch(String name, File branchDir) {
         name = correctName(name);
         File b = join(branchDir, name);
-        return !b.exists() ? null : Utils.readObject(b, Branch.class);
+        return !b.exists() ? null : Codec.readObject(b, Branch.class);
+    }
+
+    /**
+     * @return BRANCHDIR 中所有分支（包括远程分支）指向的 commit id
+     */
+    public static List<String> heads(File branchDir) {
+        List<String> ret = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(branchDir);
+        if (names != null) {
+            names.forEach(n -> ret.add(readBranch(n, branchDir).getHEADAsString()));
+        }
+        return ret;
     }
 
     /**
@@ -104,6 +123,26 @@ public class Branch implements Serializable {
         return name;
     }
 
+    @Override
+    public int type() {
+        return Codec.BRANCH;
+    }
+
+    /**
+     * name | HEAD
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writeString(name);
+        out.writeOptionalId(HEAD);
+    }
+
+    static Branch decode(Codec.Reader in) {
+        String n = in.readString();
+        String head = in.readOptionalId();
+        return new Branch(n, head == null ? "" : head, false);
+    }
+
     /**
      * @return branch name
      */
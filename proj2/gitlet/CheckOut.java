@@ -1,13 +1,25 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-
-import static gitlet.Utils.*;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 代表 gitlet-checkout 和 gitlet-reset.
+ * <p>
+ * 检出分支和 reset 时，文件由一个线程池并行恢复，
+ * 线程数由 Config 中的 checkout.workers 配置，checkout.maxOpenFiles 可以进一步限制同时恢复的文件数。
+ * 所有文件写完之后才更新 index 和 HEAD。
  *
  * @author SouvLithe
  */
@@ -34,8 +46,7 @@ public class CheckOut {
             HelperMethods.exit("File does not exist in that commit.");
         }
         // 重写老文件
-        File checkFrom = join(Repository.makeObjectDir(oldBlob));
-        reStoreBlob(file, checkFrom);
+        reStoreBlob(file, oldBlob);
     }
 
     public static void checkoutBranch(String name) {
@@ -50,17 +61,9 @@ public class CheckOut {
 
         HelperMethods.untrackedExist();
 
-        Repository.clean(Repository.CWD);
         Branch branchToSwitch = Branch.readBranch(name);
-
         Commit commitToSwitch = branchToSwitch.getHEADAsCommit();
-        HashMap<String, String> old = commitToSwitch.getBlobs();
-        for (String oldFile : old.keySet()) {
-            String branchName = old.get(oldFile);
-            reStoreBlob(join(oldFile), join(Repository.makeObjectDir(branchName)));
-        }
-
-        HelperMethods.readStagingArea().cleanStagingArea();
+        checkoutCommit(commitToSwitch);
         HelperMethods.setHEAD(commitToSwitch, branchToSwitch);
     }
 
@@ -75,21 +78,105 @@ public class CheckOut {
      * 同时还会更改当前分支的分支头。
      */
     public static void reset(Commit commit) {
-        Repository.clean(Repository.CWD);
-        HelperMethods.readStagingArea().cleanStagingArea();
-        Map<String, String> olds = commit.getBlobs();
-        olds.keySet().forEach(file -> checkoutFile(commit, join(file)));
+        checkoutCommit(commit);
         HelperMethods.setHEAD(commit, HelperMethods.readHEADAsBranch());
     }
 
     /**
-     * 从blob中读取文件内容, 随后写入该文件
+     * 把工作目录变成 TARGET 中的样子，并清空暂存区。
+     * <p>
+     * 调用前已经确认工作目录中没有未跟踪的文件，所以不在 TARGET 中的文件都可以删除，
+     * 删除后变空的目录也一起删除。
+     * HEAD 和 TARGET 之间改变的文件由两个 tree 比较得到，id 相同的子目录不会被读取，这些文件直接重写；
+     * 其余的文件只有内容与 blob 不同时才重写，
+     * 比较时使用 index 中的 stat 记录，未改动的文件不会被读取，修改时间也保持不变。
+     */
+    private static void checkoutCommit(Commit target) {
+        Index index = HelperMethods.readStagingArea();
+        Map<String, String> changed = new HashMap<>();
+        Commit.changes(HelperMethods.readHEADAsCommit(), target, (path, oldId, newId) -> {
+            if (newId != null) {
+                changed.put(path, newId);
+            }
+        });
+        Map<String, String> blobs = target.getBlobs();
+        Set<String> present = new HashSet<>();
+        for (String path : Repository.workingFiles()) {
+            if (!blobs.containsKey(path)) {
+                Repository.deleteWorkingFile(Repository.workingFile(path));
+            } else {
+                present.add(path);
+            }
+        }
+        blobs.forEach((path, id) -> {
+            if (!changed.containsKey(path) && (!present.contains(path)
+                    || !index.blobId(Repository.workingFile(path)).equals(id))) {
+                changed.put(path, id);
+            }
+        });
+        reStoreBlobs(changed);
+        index.cleanStagingArea();
+    }
+
+    /**
+     * 把 blob 的内容从对象库直接拷贝到该文件
      *
-     * @param file      需要检出的文件
-     * @param checkFrom 指向 该文件的 blob
+     * @param file   需要检出的文件
+     * @param blobId 该文件的 blob id
      */
-    private static void reStoreBlob(File file, File checkFrom) {
-        Blob oldBlob = readObject(checkFrom, Blob.class);
-        writeContents(file, oldBlob.getContent());
+    private static void reStoreBlob(File file, String blobId) {
+        file.getParentFile().mkdirs();
+        Blob.writeTo(blobId, file);
+        Watcher.changed(file);
+    }
+
+    /**
+     * 把 BLOBS 中的每个文件（相对路径 -> blob id）恢复到工作目录。
+     * <p>
+     * 文件按路径排序后提交给线程池。每个线程同一时间只恢复一个文件，
+     * 所以线程数取 checkout.workers 和 checkout.maxOpenFiles 中较小的一个，
+     * 后者默认与前者相同，只在需要比线程数更低的上限时设置。
+     * 某个文件失败后，尚未开始的文件不再恢复；
+     * 抛出的总是按路径顺序第一个失败的文件的异常。
+     */
+    private static void reStoreBlobs(Map<String, String> blobs) {
+        int workers = Config.getInt(Config.CHECKOUT_WORKERS,
+                Math.min(8, Runtime.getRuntime().availableProcessors() * 2));
+        workers = Math.min(workers, Config.getInt(Config.CHECKOUT_MAX_OPEN_FILES, workers));
+        if (workers <= 1 || blobs.size() <= 1) {
+            blobs.forEach((path, id) -> reStoreBlob(Repository.workingFile(path), id));
+            return;
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, blobs.size()));
+        List<Future<Boolean>> tasks = new ArrayList<>();
+        try {
+            for (Map.Entry<String, String> e : new TreeMap<>(blobs).entrySet()) {
+                tasks.add(pool.submit(() -> {
+                    if (failed.get()) {
+                        return false;
+                    }
+                    try {
+                        reStoreBlob(Repository.workingFile(e.getKey()), e.getValue());
+                        return true;
+                    } catch (RuntimeException excp) {
+                        failed.set(true);
+                        throw excp;
+                    }
+                }));
+            }
+            for (Future<Boolean> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            throw cause instanceof RuntimeException r ? r
+                    : new IllegalArgumentException(cause.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
     }
 }
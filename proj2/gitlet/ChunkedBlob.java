@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/**
+ * 分块保存的大文件 blob 的清单。
+ * <p>
+ * 不小于 blob.chunkThreshold 字节（默认 16 MiB）的文件按内容切成若干块，
+ * 每一块是一个普通的 blob 对象，id 是块内容的 SHA-1；
+ * 清单以文件的 blob id 保存，按顺序记下各块的 id 和长度。
+ * 块的边界由滚动哈希（gear hash）决定，只取决于边界附近的内容，
+ * 文件中间插入或追加了内容时，其余的块不变，在各个版本之间共用。
+ * <p>
+ * 切块、写入和检出都是流式的，文件内容不会整个读进内存。
+ * tree 中分块的文件单独标记，遍历可达对象时连同它的各块一起给出。
+ *
+ * @author SouvLithe
+ */
+public class ChunkedBlob implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = 6120467239251873180L;
+
+    /**
+     * 分块保存的文件大小下限的配置项，单位是字节
+     */
+    public static final String THRESHOLD = "blob.chunkThreshold";
+
+    private static final int DEFAULT_THRESHOLD = 16 << 20;
+
+    /**
+     * 块的最小和最大长度。最小长度之后，哈希的高 20 位全为 0 时切开，块的平均长度约 1 MiB
+     */
+    private static final int MIN_CHUNK = 256 << 10;
+    private static final int MAX_CHUNK = 4 << 20;
+    private static final long MASK = 0xfffffL << 44;
+
+    /**
+     * 每个字节值对应的随机数，种子固定，同样的内容总是切出同样的块
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x676974);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * 文件的 blob id
+     */
+    private final String uid;
+
+    /**
+     * 文件的长度
+     */
+    private final long length;
+
+    /**
+     * 按顺序排列的各块的 id 和长度
+     */
+    private final String[] chunks;
+    private final long[] lengths;
+
+    private ChunkedBlob(String uid, long length, String[] chunks, long[] lengths) {
+        this.uid = uid;
+        this.length = length;
+        this.chunks = chunks;
+        this.lengths = lengths;
+    }
+
+    /**
+     * @return 长度为 LENGTH 的文件是否应该分块保存
+     */
+    static boolean shouldChunk(long length) {
+        return length >= Config.getInt(THRESHOLD, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * 把文件 FILE 切块写入 STORE，清单以 UID 保存。
+     * 已经存在的块不会重写。
+     */
+    static void write(File file, String uid, ObjectStore store) {
+        List<String> ids = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            byte[] bytes = buf.array();
+            long start = 0;
+            long pos = 0;
+            int size = 0;
+            long hash = 0;
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                int from = 0;
+                for (int i = 0; i < n; i++) {
+                    hash = (hash << 1) + GEAR[bytes[i] & 0xff];
+                    size++;
+                    if (size >= MIN_CHUNK && (hash & MASK) == 0 || size == MAX_CHUNK) {
+                        md.update(bytes, from, i + 1 - from);
+                        from = i + 1;
+                        addChunk(file, store, md, start, size, ids, sizes);
+                        start += size;
+                        size = 0;
+                        hash = 0;
+                    }
+                }
+                md.update(bytes, from, n - from);
+                pos += n;
+                buf.clear();
+            }
+            if (size > 0 || ids.isEmpty()) {
+                addChunk(file, store, md, start, size, ids, sizes);
+            }
+            String[] chunks = ids.toArray(new String[0]);
+            long[] lengths = sizes.stream().mapToLong(Long::longValue).toArray();
+            store.write(uid, Codec.encode(new ChunkedBlob(uid, pos, chunks, lengths)));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * FILE 中从 START 开始的 SIZE 个字节是一块，MD 中是它的内容
+     */
+    private static void addChunk(File file, ObjectStore store, MessageDigest md, long start,
+                                 int size, List<String> ids, List<Long> sizes) {
+        String id = bytesToHex(md.digest());
+        store.write(id, Blob.header(id, size), file, start, size);
+        ids.add(id);
+        sizes.add((long) size);
+    }
+
+    /**
+     * @return id 为 UID 的清单
+     */
+    static ChunkedBlob read(String uid, File objectsDir) {
+        ChunkedBlob ret = HelperMethods.toChunkedBlob(uid, objectsDir);
+        if (ret == null) {
+            throw error("Missing blob %s.", uid);
+        }
+        return ret;
+    }
+
+    /**
+     * @return STORE 中 id 为 UID 的对象是否是一个清单，只读取对象头部
+     */
+    static boolean isChunked(ObjectStore store, String uid) {
+        return store.typeOf(uid) == Codec.CHUNKED;
+    }
+
+    /**
+     * @return 按顺序排列的各块的 id
+     */
+    List<String> chunks() {
+        return List.of(chunks);
+    }
+
+    long length() {
+        return length;
+    }
+
+    @Override
+    public int type() {
+        return Codec.CHUNKED;
+    }
+
+    /**
+     * uid | length | count | (chunk id | chunk length)*
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writeId(uid);
+        out.writeVarint(length);
+        out.writeVarint(chunks.length);
+        for (int i = 0; i < chunks.length; i++) {
+            out.writeId(chunks[i]);
+            out.writeVarint(lengths[i]);
+        }
+    }
+
+    static ChunkedBlob decode(Codec.Reader in) {
+        String uid = in.readId();
+        long length = in.readVarlong();
+        int n = in.readVarint();
+        String[] chunks = new String[n];
+        long[] lengths = new long[n];
+        for (int i = 0; i < n; i++) {
+            chunks[i] = in.readId();
+            lengths[i] = in.readVarlong();
+        }
+        return new ChunkedBlob(uid, length, chunks, lengths);
+    }
+}
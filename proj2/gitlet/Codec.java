@@ -0,0 +1,341 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * gitlet 对象的二进制编码，取代 java.io 的序列化。
+ * <p>
+ * 每个对象以 3 个字节开头: MAGIC | 类型 | 版本，
+ * 之后是各个类自己写的字段。
+ * 长度和时间使用 varint，id 写成 20 字节的原始 SHA-1，
+ * 路径表按路径排序并共享前缀。
+ * <p>
+ * 版本 2 的 commit 引用一个根 tree，不再保存完整的路径表；
+ * 版本 1 的 commit 和以 java 序列化写入的旧对象（以 0xACED 开头）仍然可以读取。
+ *
+ * @author SouvLithe
+ */
+public class Codec {
+    static final int MAGIC = 0x67;
+    static final int VERSION = 2;
+
+    static final int COMMIT = 1;
+    static final int BLOB = 2;
+    static final int INDEX = 3;
+    static final int BRANCH = 4;
+    static final int REMOTE = 5;
+    static final int TREE = 6;
+    static final int CHUNKED = 7;
+
+    /**
+     * 可以用 Codec 编码的对象
+     */
+    interface Encodable {
+        /**
+         * @return 对象的类型，见 Codec 中的常量
+         */
+        int type();
+
+        /**
+         * 把对象的字段写入 OUT
+         */
+        void encode(Writer out);
+    }
+
+    /**
+     * @return OBJ 的编码
+     */
+    public static byte[] encode(Encodable obj) {
+        long start = IoStats.start();
+        Writer out = new Writer();
+        out.writeByte(MAGIC);
+        out.writeByte(obj.type());
+        out.writeByte(VERSION);
+        obj.encode(out);
+        byte[] ret = out.toByteArray();
+        IoStats.record(IoStats.ENCODE, start, ret.length);
+        return ret;
+    }
+
+    /**
+     * 解码 BYTES 并转换为 EXPECTEDCLASS。
+     * 旧的 java 序列化对象会交给 Utils.deserialize。
+     */
+    public static <T extends Serializable> T decode(byte[] bytes, Class<T> expectedClass) {
+        long start = IoStats.start();
+        T ret = decodeObject(bytes, expectedClass);
+        IoStats.record(IoStats.DECODE, start, bytes.length);
+        return ret;
+    }
+
+    private static <T extends Serializable> T decodeObject(byte[] bytes,
+                                                           Class<T> expectedClass) {
+        if (isLegacy(bytes)) {
+            return deserialize(bytes, expectedClass);
+        }
+        if (bytes.length < 3 || (bytes[0] & 0xff) != MAGIC) {
+            throw new IllegalArgumentException("not a gitlet object");
+        }
+        if (bytes[2] > VERSION) {
+            throw new IllegalArgumentException("unsupported object version " + bytes[2]);
+        }
+        Reader in = new Reader(bytes, 3);
+        Object obj = switch (bytes[1]) {
+            case COMMIT -> Commit.decode(in, bytes[2]);
+            case BLOB -> Blob.decode(in);
+            case INDEX -> Index.decode(in);
+            case BRANCH -> Branch.decode(in);
+            case REMOTE -> Remote.decode(in);
+            case TREE -> Tree.decode(in);
+            case CHUNKED -> ChunkedBlob.decode(in);
+            default -> throw new IllegalArgumentException("unknown object type " + bytes[1]);
+        };
+        try {
+            return expectedClass.cast(obj);
+        } catch (ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return 如果 BYTES 是旧的 java 序列化对象，返回 true
+     */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xac && (bytes[1] & 0xff) == 0xed;
+    }
+
+    /**
+     * @return BYTES 编码的对象类型，旧对象返回 -1
+     */
+    static int typeOf(byte[] bytes) {
+        return isLegacy(bytes) || bytes.length < 3 ? -1 : bytes[1];
+    }
+
+    /**
+     * 从 FILE 中读取一个对象，文件内容经过 ObjectCache
+     */
+    public static <T extends Serializable> T readObject(File file, Class<T> expectedClass) {
+        long start = IoStats.start();
+        byte[] bytes = ObjectCache.shared().readFile(file);
+        T ret = decode(bytes, expectedClass);
+        IoStats.record(IoStats.READ_OBJECT, start, bytes.length);
+        return ret;
+    }
+
+    /**
+     * 把 OBJ 写入 FILE
+     */
+    public static void writeObject(File file, Encodable obj) {
+        long start = IoStats.start();
+        byte[] bytes = encode(obj);
+        writeContents(file, (Object) bytes);
+        ObjectCache.shared().invalidate(file);
+        IoStats.record(IoStats.WRITE_OBJECT, start, bytes.length);
+    }
+
+    /**
+     * 旧对象重新编码，新对象原样返回
+     */
+    static byte[] migrate(byte[] bytes) {
+        if (!isLegacy(bytes)) {
+            return bytes;
+        }
+        return encode((Encodable) deserialize(bytes, Serializable.class));
+    }
+
+    /**
+     * 写入编码
+     */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeByte(int b) {
+            out.write(b);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        void writeString(String s) {
+            writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * 写入一个 40 位的 id，写成 20 个原始字节
+         */
+        void writeId(String id) {
+            out.writeBytes(hexToBytes(id));
+        }
+
+        /**
+         * 写入一个可能为空的 id，先写一个标记字节
+         */
+        void writeOptionalId(String id) {
+            if (id == null || id.isEmpty()) {
+                writeByte(0);
+            } else {
+                writeByte(1);
+                writeId(id);
+            }
+        }
+
+        /**
+         * 写入一张 路径 -> id 的表。
+         * 路径排好序，每一项只写与前一项不同的后缀。
+         */
+        void writePathTable(Map<String, String> table) {
+            writeVarint(table.size());
+            String prev = "";
+            for (Map.Entry<String, String> e : new TreeMap<>(table).entrySet()) {
+                String path = e.getKey();
+                int shared = sharedPrefix(prev, path);
+                writeVarint(shared);
+                writeString(path.substring(shared));
+                writeId(e.getValue());
+                prev = path;
+            }
+        }
+
+        /**
+         * 写入一组路径，格式同路径表但没有 id
+         */
+        void writePaths(Iterable<String> paths) {
+            TreeMap<String, String> table = new TreeMap<>();
+            paths.forEach(p -> table.put(p, null));
+            writeVarint(table.size());
+            String prev = "";
+            for (String path : table.keySet()) {
+                int shared = sharedPrefix(prev, path);
+                writeVarint(shared);
+                writeString(path.substring(shared));
+                prev = path;
+            }
+        }
+
+        private static int sharedPrefix(String a, String b) {
+            int n = Math.min(a.length(), b.length());
+            int i = 0;
+            while (i < n && a.charAt(i) == b.charAt(i)) {
+                i++;
+            }
+            if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+                i--;
+            }
+            return i;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * 读取编码
+     */
+    static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        int readByte() {
+            return buf[pos++] & 0xff;
+        }
+
+        long readVarlong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        int readVarint() {
+            return (int) readVarlong();
+        }
+
+        byte[] readBytes() {
+            int n = readVarint();
+            byte[] ret = new byte[n];
+            System.arraycopy(buf, pos, ret, 0, n);
+            pos += n;
+            return ret;
+        }
+
+        String readString() {
+            int n = readVarint();
+            String ret = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return ret;
+        }
+
+        String readId() {
+            byte[] id = new byte[20];
+            System.arraycopy(buf, pos, id, 0, 20);
+            pos += 20;
+            return bytesToHex(id);
+        }
+
+        String readOptionalId() {
+            return readByte() == 0 ? null : readId();
+        }
+
+        /**
+         * 读取 writePathTable 写入的表
+         */
+        void readPathTable(Map<String, String> into) {
+            int n = readVarint();
+            String prev = "";
+            for (int i = 0; i < n; i++) {
+                String path = prev.substring(0, readVarint()) + readString();
+                into.put(path, readId());
+                prev = path;
+            }
+        }
+
+        /**
+         * 读取 writePaths 写入的路径
+         */
+        void readPaths(Collection<String> into) {
+            int n = readVarint();
+            String prev = "";
+            for (int i = 0; i < n; i++) {
+                String path = prev.substring(0, readVarint()) + readString();
+                into.add(path);
+                prev = path;
+            }
+        }
+    }
+}
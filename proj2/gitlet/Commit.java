@@ -3,6 +3,9 @@ package gitlet;
 import java.io.File;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -13,7 +16,9 @@ import static gitlet.Utils.*;
  *
  * @author SouvLithe
  */
-public class Commit implements Serializable {
+public class Commit implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = 8001509236151899997L;
+
     /**
      * The message of this Commit.
      */
@@ -35,17 +40,43 @@ public class Commit implements Serializable {
     private Date date;
 
     /**
-     * 此次提交的文件快照。
-     * 键是当前工作目录中具有绝对路径的文件。
-     * 值是位于 BLOB_DIR/shortCommitUid 目录下的二进制数据块。
+     * 此次提交的文件快照的根 tree，see Tree.
+     * 旧版本的 commit 没有 tree，文件快照只保存在 blobs 中。
+     */
+    private String tree;
+
+    /**
+     * 旧版本的 commit 的文件快照，有 tree 的 commit 不使用这个字段。
+     * 旧版本以绝对路径为键，读取时转换为相对路径。
      */
     private HashMap<String, String> blobs;
 
+    /**
+     * blobs 的键是否已经是相对路径
+     */
+    private transient boolean relative;
+
+    /**
+     * tree 的只读视图，see getBlobs.
+     */
+    private transient Map<String, String> view;
+
     /**
      * 维护该 Commit 的一个 SHA-1 id
      */
     private String uid;
 
+    /**
+     * 解码得到的版本 1 的 commit 先不解码路径表，
+     * 第一次访问 blobs 时再从这里解码
+     */
+    private transient byte[] encoded;
+
+    /**
+     * 路径表在 encoded 中的位置
+     */
+    private transient int blobsOffset;
+
     /**
      * 创建一个带有消息和父提交标识符的提交对象。
      * 第一个带有消息且没有父提交“initial commit” 的 commit。
@@ -59,44 +90,58 @@ public class Commit implements Serializable {
         instantiateCommit(msg, parent, parent2);
     }
 
+    private Commit() {
+    }
+
     /**
-     * 找到与 uid 相匹配的 commit对象
+     * 找到与 uid 相匹配的 commit对象。
+     * ID 可以是完整的 id，也可以是 4 位以上的缩写，只在 commit 对象中匹配；
+     * 缩写匹配到多个 commit 时报告歧义并退出。
+     *
+     * @return 对应的 commit，不存在时返回 null
      */
     public static Commit findWithUid(String id) {
         if (id == null) {
             return null;
         }
-        Commit ret = HelperMethods.toCommit(id);
-        return ret != null ? ret : HelperMethods.toCommit(id.substring(0, 8));
+        ObjectStore store = ObjectStore.local();
+        List<String> found = new ArrayList<>();
+        for (String o : store.findPrefix(id)) {
+            if (isCommit(store, o)) {
+                found.add(o);
+            }
+        }
+        if (found.size() > 1) {
+            HelperMethods.exit("Commit id " + id + " is ambiguous.");
+        }
+        return found.isEmpty() ? null : HelperMethods.toCommit(found.get(0));
     }
 
     /**
-     * 找出所有具有指定提交消息的提交记录的 id 值
+     * @return STORE 中的对象 ID 是否是 commit，旧格式的对象需要解码后判断
+     */
+    static boolean isCommit(ObjectStore store, String id) {
+        int type = store.typeOf(id);
+        return type == Codec.COMMIT
+                || type < 0 && Codec.decode(store.read(id), Serializable.class) instanceof Commit;
+    }
+
+    /**
+     * 找出所有具有指定提交消息的提交记录的 id 值，
+     * 通过 MessageIndex 一次查找得到，不再遍历所有 commit
      *
      * @return commits 的uid刘表
      */
     public static List<String> findWithMessage(String message) {
-        Set<Commit> commits = findAll();
-        List<String> ids = new ArrayList<>();
-        for (Commit c : commits) {
-            if (c.log.equals(message)) {
-                ids.add(c.uid);
-            }
-        }
-        return ids;
+        return MessageIndex.find(message);
     }
 
     /**
      * @return 所有曾经进行过的 commit 操作，包括未关联的。
+     * 按 journal 中的顺序逐个读取，不会一次全部读入内存。
      */
-    public static Set<Commit> findAll() {
-        Set<Commit> commits = new HashSet<>();
-        String cs = readContentsAsString(Repository.COMMITS);
-        while (!cs.isEmpty()) {
-            commits.add(HelperMethods.toCommit(cs.substring(0, 40)));
-            cs = cs.substring(40);
-        }
-        return commits;
+    public static Stream<Commit> findAll() {
+        return CommitJournal.ids().map(HelperMethods::toCommit);
     }
 
     /**
@@ -112,60 +157,78 @@ public class Commit implements Serializable {
         } else {
             this.date = new Date();
         }
-        this.blobs = new HashMap<>();
     }
 
     /**
      * 将此 commit 对象写入 COMMIT_DIR 目录
-     * 并重置 HEAD 指针
+     * 并重置 HEAD 指针。
+     * 新的 tree 由父提交的 tree 加上暂存区的改动得到，只有改动过的目录被重写。
      */
     public void makeCommit() {
-        //加载父母类的 blobs
-        if (this.parent != null) {
-            this.blobs = this.getParentAsCommit().blobs;
-        }
         Index index = HelperMethods.readStagingArea();
-        boolean flag = getStage(index);
-        flag = unStage(flag, index);
-        if (this.parent != null && !flag) {
+        Map<String, String> changes = new HashMap<>();
+        index.getAdded().forEach((f, id) -> changes.put(Repository.relativePath(join(f)), id));
+        index.getRemoved().forEach(f -> changes.put(Repository.relativePath(join(f)), null));
+        if (this.parent != null && changes.isEmpty()) {
             HelperMethods.exit("No changes added to the commit.");
         }
+        String base = this.parent == null ? null : this.getParentAsCommit().treeId();
+        this.tree = Tree.apply(base, changes, Repository.OBJECTS_DIR);
+        index.getRemoved().forEach(f -> Repository.deleteWorkingFile(join(f)));
         setUid();
-        File out = Repository.makeObjectDir(this.uid);
         index.cleanStagingArea();
-        writeObject(out, this);
+        ObjectStore.local().write(this.uid, Codec.encode(this));
+        CommitGraph.local().add(this);
         HelperMethods.setHEAD(this, HelperMethods.readHEADAsBranch());
-        String cs = readContentsAsString(Repository.COMMITS);
-        cs += this.uid;
-        writeContents(Repository.COMMITS, cs);
+        CommitJournal.append(this.uid);
+        MessageIndex.add(this);
+    }
+
+    /**
+     * 把 A 和 B 之间改变的文件交给 OUT，按相对路径报告。
+     * 两个 commit 都有 tree 时，id 相同的子目录整个跳过；
+     * 否则（旧版本的 commit）逐个比较路径表。
+     */
+    static void changes(Commit a, Commit b, Tree.Change out) {
+        if (a.tree != null && b.tree != null) {
+            Tree.diff(a.tree, b.tree, Repository.OBJECTS_DIR, out);
+            return;
+        }
+        Map<String, String> x = a.getBlobs();
+        Map<String, String> y = b.getBlobs();
+        x.forEach((path, id) -> {
+            String other = y.get(path);
+            if (!id.equals(other)) {
+                out.changed(path, id, other);
+            }
+        });
+        y.forEach((path, id) -> {
+            if (!x.containsKey(path)) {
+                out.changed(path, null, id);
+            }
+        });
     }
 
     /**
-     * 为blobs 添加 staging区域
+     * 遍历本 commit 引用的 tree 和 blob，tree 从 OBJECTSDIR 中读取。
+     * ENTER 对某个 tree 返回 false 时不再展开它，见 Tree.walk
      */
-    private boolean getStage(Index i) {
-        boolean flag = false;
-        Map<String, String> added = i.getAdded();
-        if (!added.isEmpty()) {
-            flag = true;
-            this.blobs.putAll(i.getAdded());
+    void forEachObject(File objectsDir, Predicate<String> enter, Consumer<String> blob) {
+        if (tree != null) {
+            Tree.walk(tree, objectsDir, enter, blob);
+        } else {
+            getBlobs().values().forEach(blob);
         }
-        return flag;
     }
 
     /**
-     * 在 commit 中删掉 blobs
+     * @return 根 tree 的 id。旧版本的 commit 没有 tree，由它的路径表生成并写入对象库
      */
-    private boolean unStage(boolean flag, Index i) {
-        Set<String> rm = i.getRemoved();
-        if (!rm.isEmpty()) {
-            flag = true;
-            rm.forEach(file -> {
-                blobs.remove(file);
-                restrictedDelete(file);
-            });
+    String treeId() {
+        if (tree == null) {
+            tree = Tree.apply(null, getBlobs(), Repository.OBJECTS_DIR);
         }
-        return flag;
+        return tree;
     }
 
     /**
@@ -195,16 +258,89 @@ public class Commit implements Serializable {
         return log;
     }
 
-    public HashMap<String, String> getBlobs() {
+    /**
+     * @return 完整的文件快照，相对路径 -> blob id。
+     * 有 tree 的 commit 返回 tree 的只读视图（见 Tree.view），不复制路径表，
+     * 按路径查找时只读取路径上的各级目录
+     */
+    public Map<String, String> getBlobs() {
+        if (tree != null) {
+            if (view == null) {
+                view = Tree.view(tree, Repository.OBJECTS_DIR);
+            }
+            return view;
+        }
+        if (blobs == null) {
+            blobs = new HashMap<>();
+            new Codec.Reader(encoded, blobsOffset).readPathTable(blobs);
+            encoded = null;
+        }
+        if (!relative) {
+            // 旧版本只跟踪工作目录中的文件，绝对路径的文件名就是相对路径
+            HashMap<String, String> ret = new HashMap<>();
+            blobs.forEach((path, id) -> ret.put(new File(path).getName(), id));
+            blobs = ret;
+            relative = true;
+        }
         return blobs;
     }
 
     public String getBlob(File f) {
-        return blobs.get(f.getAbsolutePath());
+        return getBlob(Repository.relativePath(f));
+    }
+
+    /**
+     * @return 相对路径 PATH 的 blob id，不存在时返回 null
+     */
+    public String getBlob(String path) {
+        return getBlobs().get(path);
+    }
+
+    public String getSecondParentAsString() {
+        return parent2;
     }
 
     public Commit getSecondParentAsCommit() {
         return HelperMethods.toCommit(this.parent2);
     }
 
+    @Override
+    public int type() {
+        return Codec.COMMIT;
+    }
+
+    /**
+     * parent | parent2 | date | log | uid | tree
+     * <p>
+     * 版本 1 在 uid 之后是完整的路径表
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writeOptionalId(parent);
+        out.writeOptionalId(parent2);
+        out.writeVarint(date.getTime());
+        out.writeString(log);
+        out.writeId(uid);
+        out.writeId(treeId());
+    }
+
+    /**
+     * 只解码定长的头部字段，版本 1 的路径表留到 getBlobs 时再解码
+     */
+    static Commit decode(Codec.Reader in, int version) {
+        Commit c = new Commit();
+        c.parent = in.readOptionalId();
+        c.parent2 = in.readOptionalId();
+        c.date = new Date(in.readVarlong());
+        c.log = in.readString();
+        c.uid = in.readId();
+        if (version >= 2) {
+            c.tree = in.readId();
+        } else {
+            c.encoded = in.buffer();
+            c.blobsOffset = in.position();
+        }
+        return c;
+    }
+
 }
@@ -0,0 +1,437 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * 一个仓库的 commit 图，保存在 objects/info/commit-graph 中。
+ * <p>
+ * "GCGR" | version | count
+ * <br>之后每个 commit 一条定长记录:
+ * <br>id(20) | parent 下标 | parent2 下标 | generation | date
+ * <p>
+ * 记录只追加，父提交总在子提交之前，因此下标就是一个拓扑序。
+ * generation 是 commit 到根的最长路径长度（根为 1），
+ * 祖先的 generation 一定比后代小，遍历时可以据此剪枝。
+ * 查询祖先关系和 split point 只需要这个文件，不需要读取 commit 对象。
+ *
+ * @author SouvLithe
+ */
+public class CommitGraph {
+    private static final int MAGIC = 0x47434752;
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int RECORD = 20 + 4 + 4 + 4 + 8;
+
+    /**
+     * 每个 .gitlet 目录对应一个 commit 图，只在 of 中（持有类锁）访问
+     */
+    private static final Map<File, CommitGraph> GRAPHS = new HashMap<>();
+
+    /**
+     * commit 图文件
+     */
+    private final File file;
+
+    /**
+     * 该仓库的 objects 目录，图中缺少 commit 时从这里补全
+     */
+    private final File objectsDir;
+
+    private int count;
+    private byte[] ids = new byte[0];
+    private int[] parents = new int[0];
+    private int[] parents2 = new int[0];
+    private int[] generations = new int[0];
+    private long[] dates = new long[0];
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    /**
+     * 加载时文件的长度、修改时间和 fileKey。其他进程追加或者 gc 重建之后
+     * 至少有一项不同，据此重新加载
+     */
+    private long loadedLength = -1;
+    private long loadedMtime;
+    private Object loadedKey;
+
+    private CommitGraph(File gitletDir) {
+        this.objectsDir = join(gitletDir, "objects");
+        this.file = join(objectsDir, "info", "commit-graph");
+    }
+
+    /**
+     * @return 给定 .gitlet 目录的 commit 图
+     */
+    public static synchronized CommitGraph of(File gitletDir) {
+        CommitGraph g = GRAPHS.computeIfAbsent(gitletDir.getAbsoluteFile(), CommitGraph::new);
+        g.refresh();
+        return g;
+    }
+
+    /**
+     * @return 当前仓库的 commit 图
+     */
+    public static CommitGraph local() {
+        return of(Repository.GITLET_DIR);
+    }
+
+    /**
+     * 文件的 stat 信息与加载时不同则重新读取
+     */
+    private void refresh() {
+        BasicFileAttributes a = attributes();
+        long length = a == null ? 0 : a.size();
+        if (length == loadedLength && mtime(a) == loadedMtime
+                && Objects.equals(a == null ? null : a.fileKey(), loadedKey)) {
+            return;
+        }
+        count = 0;
+        positions.clear();
+        if (length >= HEADER) {
+            ByteBuffer buf = ByteBuffer.wrap(readContents(file));
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw error("Corrupt commit graph.");
+            }
+            int n = buf.getInt();
+            grow(n);
+            byte[] id = new byte[20];
+            for (int i = 0; i < n; i++) {
+                buf.get(id);
+                append(id, buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong());
+            }
+        }
+        remember(a);
+    }
+
+    /**
+     * @return 图文件的属性，文件不存在时返回 null
+     */
+    private BasicFileAttributes attributes() {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long mtime(BasicFileAttributes a) {
+        return a == null ? 0 : a.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记下 A 作为已加载的版本
+     */
+    private void remember(BasicFileAttributes a) {
+        loadedLength = a == null ? 0 : a.size();
+        loadedMtime = mtime(a);
+        loadedKey = a == null ? null : a.fileKey();
+    }
+
+    private void grow(int capacity) {
+        if (capacity <= parents.length) {
+            return;
+        }
+        capacity = Math.max(capacity, parents.length * 2);
+        ids = Arrays.copyOf(ids, capacity * 20);
+        parents = Arrays.copyOf(parents, capacity);
+        parents2 = Arrays.copyOf(parents2, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+    }
+
+    private int append(byte[] id, int p1, int p2, int gen, long date) {
+        grow(count + 1);
+        System.arraycopy(id, 0, ids, count * 20, 20);
+        parents[count] = p1;
+        parents2[count] = p2;
+        generations[count] = gen;
+        dates[count] = date;
+        positions.put(bytesToHex(id), count);
+        return count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return commit 在图中的下标，不在图中时返回 -1
+     */
+    public int indexOf(String id) {
+        Integer i = id == null ? null : positions.get(id);
+        return i == null ? -1 : i;
+    }
+
+    public String idAt(int i) {
+        return bytesToHex(Arrays.copyOfRange(ids, i * 20, i * 20 + 20));
+    }
+
+    public int parent(int i) {
+        return parents[i];
+    }
+
+    public int secondParent(int i) {
+        return parents2[i];
+    }
+
+    public int generation(int i) {
+        return generations[i];
+    }
+
+    public long date(int i) {
+        return dates[i];
+    }
+
+    /**
+     * 把 commit C 加入图中，它的父提交必须已经在图中或在对象库中
+     *
+     * @return C 的下标
+     */
+    public int add(Commit c) {
+        int i = indexOf(c.getUid());
+        if (i >= 0) {
+            return i;
+        }
+        int p1 = require(c.getParentAsString());
+        int p2 = require(c.getSecondParentAsString());
+        int gen = 1 + Math.max(p1 < 0 ? 0 : generations[p1], p2 < 0 ? 0 : generations[p2]);
+        i = append(hexToBytes(c.getUid()), p1, p2, gen, c.getDate().getTime());
+        write(i);
+        return i;
+    }
+
+    /**
+     * 返回 commit ID 的下标。
+     * 不在图中的 commit（例如旧仓库中的 commit）会从对象库读出，
+     * 连同它缺少的祖先一起按拓扑序追加到图中。
+     *
+     * @return 下标，ID 为空时返回 -1
+     */
+    public int require(String id) {
+        if (id == null || id.isEmpty()) {
+            return -1;
+        }
+        int i = indexOf(id);
+        if (i >= 0) {
+            return i;
+        }
+        Deque<Commit> stack = new ArrayDeque<>();
+        stack.push(readCommit(id));
+        while (!stack.isEmpty()) {
+            Commit c = stack.peek();
+            String missing = null;
+            for (String p : new String[]{c.getParentAsString(), c.getSecondParentAsString()}) {
+                if (p != null && !p.isEmpty() && indexOf(p) < 0) {
+                    missing = p;
+                    break;
+                }
+            }
+            if (missing != null) {
+                stack.push(readCommit(missing));
+            } else {
+                add(stack.pop());
+            }
+        }
+        return indexOf(id);
+    }
+
+    /**
+     * 只用 IDS 及其祖先重新生成 commit 图，gc 删除 commit 后使用
+     */
+    public void rebuild(List<String> ids) {
+        file.delete();
+        refresh();
+        ids.forEach(this::require);
+    }
+
+    private Commit readCommit(String id) {
+        Commit c = HelperMethods.toCommit(id, objectsDir);
+        if (c == null) {
+            throw error("Missing commit %s.", id);
+        }
+        return c;
+    }
+
+    /**
+     * 把第 i 条记录写到它在文件中的位置，再更新头部的计数
+     */
+    private void write(int i) {
+        file.getParentFile().mkdirs();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            ByteBuffer rec = ByteBuffer.allocate(RECORD);
+            rec.put(ids, i * 20, 20).putInt(parents[i]).putInt(parents2[i])
+                    .putInt(generations[i]).putLong(dates[i]);
+            out.seek(HEADER + (long) i * RECORD);
+            out.write(rec.array());
+            out.seek(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.setLength(HEADER + (long) count * RECORD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        remember(attributes());
+    }
+
+    /**
+     * @return 如果 ANCESTOR 是 DESCENDANT 的祖先（或就是它本身），返回 true。
+     * 先把 DESCENDANT 及其祖先补进图中，这之后 ANCESTOR 仍不在图中就一定不是祖先。
+     * 遍历时跳过 generation 比 ANCESTOR 小的 commit。
+     */
+    public boolean isAncestor(String ancestor, String descendant) {
+        int d = require(descendant);
+        int a = indexOf(ancestor);
+        if (a < 0 || d < 0) {
+            return false;
+        }
+        int cutoff = generations[a];
+        boolean[] seen = new boolean[count];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(d);
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            if (i == a) {
+                return true;
+            }
+            if (i < 0 || seen[i] || generations[i] <= cutoff) {
+                continue;
+            }
+            seen[i] = true;
+            stack.push(parents2[i]);
+            stack.push(parents[i]);
+        }
+        return false;
+    }
+
+    /**
+     * 所有祖先（包括自身），按深度优先、先 parent 后 parent2 的顺序
+     */
+    public Set<String> ancestors(String id) {
+        Set<String> ret = new LinkedHashSet<>();
+        int start = require(id);
+        if (start < 0) {
+            return ret;
+        }
+        boolean[] seen = new boolean[count];
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int i = stack.pop();
+            if (i < 0 || seen[i]) {
+                continue;
+            }
+            seen[i] = true;
+            ret.add(idAt(i));
+            stack.push(parents2[i]);
+            stack.push(parents[i]);
+        }
+        return ret;
+    }
+
+    private static final int FROM_A = 1;
+    private static final int FROM_B = 2;
+    private static final int STALE = 4;
+
+    /**
+     * 求两个 commit 的 split point（最近公共祖先）。
+     * 按 generation 从大到小同时从两端向下染色，
+     * 两种颜色都染到的 commit 是候选，它的祖先不再是候选。
+     * 多个候选时取 generation 最大的，再按时间取最新的。
+     *
+     * @return split point 的 id，没有公共祖先时返回 null
+     */
+    public String mergeBase(String a, String b) {
+        int ia = require(a);
+        int ib = require(b);
+        if (ia < 0 || ib < 0) {
+            return null;
+        }
+        int[] flags = new int[count];
+        // queued[x] 是 x 在队列中出现的次数，nonStale 是队列中没有 STALE 标记的项数
+        int[] queued = new int[count];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (x, y) -> generations[x] != generations[y]
+                        ? Integer.compare(generations[y], generations[x])
+                        : Long.compare(dates[y], dates[x]));
+        flags[ia] |= FROM_A;
+        flags[ib] |= FROM_B;
+        queue.add(ia);
+        queued[ia]++;
+        if (ib != ia) {
+            queue.add(ib);
+            queued[ib]++;
+        }
+        int nonStale = queue.size();
+        List<Integer> candidates = new ArrayList<>();
+        while (nonStale > 0) {
+            int i = queue.poll();
+            queued[i]--;
+            if ((flags[i] & STALE) == 0) {
+                nonStale--;
+            }
+            int f = flags[i] & (FROM_A | FROM_B | STALE);
+            if (f == (FROM_A | FROM_B)) {
+                if (!candidates.contains(i)) {
+                    candidates.add(i);
+                }
+                f |= STALE;
+            }
+            for (int p : new int[]{parents[i], parents2[i]}) {
+                if (p < 0 || (flags[p] & f) == f) {
+                    continue;
+                }
+                if ((flags[p] & STALE) == 0 && (f & STALE) != 0) {
+                    nonStale -= queued[p];
+                }
+                flags[p] |= f;
+                queue.add(p);
+                queued[p]++;
+                if ((flags[p] & STALE) == 0) {
+                    nonStale++;
+                }
+            }
+        }
+        int best = -1;
+        for (int c : candidates) {
+            if ((flags[c] & STALE) != 0 || isRedundant(c, candidates)) {
+                continue;
+            }
+            if (best < 0 || generations[c] > generations[best]
+                    || (generations[c] == generations[best] && dates[c] > dates[best])) {
+                best = c;
+            }
+        }
+        return best < 0 ? null : idAt(best);
+    }
+
+    /**
+     * @return 如果候选 C 是另一个候选的祖先，返回 true
+     */
+    private boolean isRedundant(int c, List<Integer> candidates) {
+        for (int o : candidates) {
+            if (o != c && isAncestor(idAt(c), idAt(o))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
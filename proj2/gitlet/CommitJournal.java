@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * refs/commits 中记录的所有在本仓库中创建过的 commit。
+ * <p>
+ * "GJNL" | version | count
+ * <br>之后是 count 个 20 字节的 commit id，按创建顺序排列。
+ * <p>
+ * 新的 commit 用一次定位写追加到末尾，再更新头部的计数，
+ * 读取时按计数把文件映射到内存中逐个取出，不需要整体读入。
+ *
+ * @author SouvLithe
+ */
+public class CommitJournal {
+    private static final int MAGIC = 0x474a4e4c;
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int ID_BYTES = 20;
+
+    /**
+     * 创建一个空的 journal
+     */
+    public static void create() {
+        writeContents(Repository.COMMITS, (Object) header(0));
+    }
+
+    private static byte[] header(int count) {
+        return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION).putInt(count).array();
+    }
+
+    /**
+     * 把 commit ID 追加到 journal 末尾
+     */
+    public static void append(String id) {
+        upgrade();
+        try (FileChannel ch = FileChannel.open(Repository.COMMITS.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int count = readCount(ch);
+            ch.write(ByteBuffer.wrap(hexToBytes(id)), HEADER + (long) count * ID_BYTES);
+            ch.write(ByteBuffer.wrap(header(count + 1)), 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 用 IDS 重写 journal，gc 删除 commit 后使用
+     */
+    public static void rewrite(List<String> ids) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + ids.size() * ID_BYTES);
+        buf.put(header(ids.size()));
+        ids.forEach(id -> buf.put(hexToBytes(id)));
+        File tmp = join(Repository.REFS_DIR, "commits.tmp");
+        writeContents(tmp, (Object) buf.array());
+        try {
+            Files.move(tmp.toPath(), Repository.COMMITS.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static int readCount(FileChannel ch) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        ch.read(head, 0);
+        head.flip();
+        if (head.remaining() < HEADER || head.getInt() != MAGIC || head.getInt() != VERSION) {
+            throw error("Corrupt commit journal.");
+        }
+        return head.getInt();
+    }
+
+    /**
+     * @return 所有 commit id，按创建顺序
+     */
+    public static Stream<String> ids() {
+        upgrade();
+        try (FileChannel ch = FileChannel.open(Repository.COMMITS.toPath())) {
+            int count = readCount(ch);
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER, (long) count * ID_BYTES);
+            return IntStream.range(0, count).mapToObj(i -> {
+                byte[] id = new byte[ID_BYTES];
+                buf.get(i * ID_BYTES, id);
+                return bytesToHex(id);
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 旧版本把所有 id 拼接成一个字符串保存在 refs/commits 中，
+     * 第一次访问时把它转换成 journal
+     */
+    private static void upgrade() {
+        File f = Repository.COMMITS;
+        if (f.length() >= HEADER) {
+            try (FileChannel ch = FileChannel.open(f.toPath())) {
+                ByteBuffer magic = ByteBuffer.allocate(4);
+                ch.read(magic, 0);
+                if (magic.getInt(0) == MAGIC) {
+                    return;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        String cs = readContentsAsString(f);
+        int count = cs.length() / UID_LENGTH;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + count * ID_BYTES);
+        buf.put(header(count));
+        for (int i = 0; i < count; i++) {
+            buf.put(hexToBytes(cs.substring(i * UID_LENGTH, (i + 1) * UID_LENGTH)));
+        }
+        writeContents(f, (Object) buf.array());
+    }
+}
@@ -0,0 +1,598 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 对象库中对象的压缩。
+ * <p>
+ * 压缩过的对象以 MAGIC 开头: MAGIC | 方法 | varint(原始长度) | 压缩后的内容，
+ * 未压缩的对象以 Codec.MAGIC 或 java 序列化的 0xACED 开头，读取时按第一个字节区分，
+ * 所以两种对象可以混在同一个对象库、同一个 pack 中。
+ * <p>
+ * 方法由 compression.codec 配置: deflate（默认，级别由 compression.level 配置，默认 6）、
+ * lz（按 64 KiB 分块的 LZ77，压缩率低一些但快得多）或 none。
+ * 写入前先试着压缩内容的开头（最多 64 KiB），省下的空间不到 10% 时
+ * （例如图片、压缩包）原样保存，读取时不必解压。
+ *
+ * @author SouvLithe
+ */
+public class Compression {
+    static final int MAGIC = 0x7a;
+
+    /**
+     * 压缩方法的配置项: deflate、lz 或 none
+     */
+    public static final String CODEC = "compression.codec";
+
+    /**
+     * deflate 的压缩级别的配置项，1 到 9
+     */
+    public static final String LEVEL = "compression.level";
+
+    private static final int NONE = 0;
+    private static final int DEFLATE = 1;
+    private static final int LZ = 2;
+
+    private static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * 判断是否值得压缩时试压的字节数，也是 lz 的块大小
+     */
+    private static final int SAMPLE = 1 << 16;
+
+    /**
+     * 短于这个长度的对象不压缩
+     */
+    private static final int MIN_LENGTH = 32;
+
+    /**
+     * 压缩后不到原来的这个比例才保存压缩后的内容
+     */
+    private static final double RATIO = 0.9;
+
+    /**
+     * @return 配置的压缩方法
+     */
+    private static int method() {
+        String codec = Config.get(CODEC);
+        if (codec == null) {
+            return DEFLATE;
+        }
+        return switch (codec.trim().toLowerCase(Locale.ROOT)) {
+            case "none" -> NONE;
+            case "lz" -> LZ;
+            default -> DEFLATE;
+        };
+    }
+
+    private static int level() {
+        return Math.min(Config.getInt(LEVEL, DEFAULT_LEVEL), Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * @return 对象内容 DATA 在对象库中保存的形式: 压缩后的内容，不值得压缩时原样返回
+     */
+    static byte[] compress(byte[] data) {
+        int method = method();
+        // 不超过一个样本的对象直接整个压缩，按结果决定是否保存压缩后的内容
+        if (method == NONE || data.length < MIN_LENGTH
+                || data.length > SAMPLE && !worthCompressing(method, data, 0, SAMPLE)) {
+            return data;
+        }
+        ByteArrayOutputStream ret = new ByteArrayOutputStream(data.length / 2 + 16);
+        ret.write(MAGIC);
+        ret.write(method);
+        try {
+            writeVarint(ret, data.length);
+            if (method == LZ) {
+                for (int off = 0; off < data.length; off += SAMPLE) {
+                    writeLzBlock(ret, data, off, Math.min(SAMPLE, data.length - off));
+                }
+            } else {
+                Deflater deflater = new Deflater(level());
+                try {
+                    deflater.setInput(data);
+                    deflater.finish();
+                    byte[] buf = new byte[1 << 13];
+                    while (!deflater.finished()) {
+                        ret.write(buf, 0, deflater.deflate(buf));
+                    }
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ret.size() < data.length * RATIO ? ret.toByteArray() : data;
+    }
+
+    /**
+     * 如果文件 IN 中从 OFFSET 开始的 LENGTH 个字节值得压缩，在 OUT 上写入压缩对象的头部，
+     * 返回一个压缩之后写入 OUT 的流，流中共需写入 TOTAL 个字节；否则返回 null。
+     * 关闭返回的流不会关闭 OUT。
+     */
+    static OutputStream output(OutputStream out, long total, FileChannel in, long offset,
+                               long length) throws IOException {
+        int method = method();
+        if (method == NONE) {
+            return null;
+        }
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(length, SAMPLE));
+        while (sample.hasRemaining() && in.read(sample, offset + sample.position()) >= 0) {
+            // 读满样本
+        }
+        if (!worthCompressing(method, sample.array(), 0, sample.position())) {
+            return null;
+        }
+        return output(out, total, method);
+    }
+
+    private static OutputStream output(OutputStream out, long total, int method)
+            throws IOException {
+        out.write(MAGIC);
+        out.write(method);
+        writeVarint(out, total);
+        OutputStream shield = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        if (method == LZ) {
+            return new LzOutputStream(shield);
+        }
+        Deflater deflater = new Deflater(level());
+        return new DeflaterOutputStream(shield, deflater, SAMPLE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return 压缩 DATA 中从 OFF 开始的 LEN 个字节是否能省下至少 10% 的空间
+     */
+    private static boolean worthCompressing(int method, byte[] data, int off, int len) {
+        if (len < MIN_LENGTH) {
+            return false;
+        }
+        int size;
+        if (method == LZ) {
+            size = Lz.compress(data, off, len).length;
+        } else {
+            Deflater deflater = new Deflater(level());
+            try {
+                deflater.setInput(data, off, len);
+                deflater.finish();
+                byte[] buf = new byte[len];
+                size = 0;
+                while (!deflater.finished() && size < len) {
+                    size += deflater.deflate(buf, 0, buf.length);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        return size < len * RATIO;
+    }
+
+    /**
+     * @return 对象的第一个字节是否表示它被压缩过
+     */
+    static boolean isCompressed(int firstByte) {
+        return firstByte == MAGIC;
+    }
+
+    /**
+     * @return 对象库中保存的 DATA 对应的对象内容，未压缩的对象原样返回
+     */
+    static byte[] decompress(byte[] data) {
+        if (data.length == 0 || !isCompressed(data[0] & 0xff)) {
+            return data;
+        }
+        int[] pos = {2};
+        int method = data[1];
+        byte[] ret = new byte[Lz.varint(data, pos)];
+        try {
+            if (method == DEFLATE) {
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(data, pos[0], data.length - pos[0]);
+                    if (inflater.inflate(ret) != ret.length) {
+                        throw new DataFormatException("truncated");
+                    }
+                } finally {
+                    inflater.end();
+                }
+            } else if (method == LZ) {
+                for (int o = 0; o < ret.length; ) {
+                    int raw = Lz.varint(data, pos);
+                    int packed = Lz.varint(data, pos);
+                    if (packed == raw) {
+                        System.arraycopy(data, pos[0], ret, o, raw);
+                    } else {
+                        Lz.decompress(data, pos[0], ret, o, raw);
+                    }
+                    pos[0] += packed;
+                    o += raw;
+                }
+            } else {
+                throw new DataFormatException("unknown method " + method);
+            }
+        } catch (DataFormatException | IndexOutOfBoundsException excp) {
+            throw new IllegalArgumentException("corrupt compressed object");
+        }
+        return ret;
+    }
+
+    /**
+     * @return 读取文件 IN 中 SLICE 所在位置的对象内容的流，压缩过的对象边读边解压
+     */
+    static InputStream open(FileChannel in, ObjectStore.Slice slice) throws IOException {
+        return open(new SliceInputStream(in, slice.offset(), slice.length()));
+    }
+
+    private static InputStream open(InputStream raw) throws IOException {
+        if (!raw.markSupported()) {
+            raw = new BufferedInputStream(raw, SAMPLE);
+        }
+        raw.mark(1);
+        int first = raw.read();
+        if (!isCompressed(first)) {
+            raw.reset();
+            return raw;
+        }
+        int method = raw.read();
+        long total = readVarint(raw);
+        InputStream body = switch (method) {
+            case DEFLATE -> inflate(raw);
+            case LZ -> new LzInputStream(raw);
+            default -> throw new IOException("unknown compression method " + method);
+        };
+        return new FilterInputStream(body) {
+            private long left = total;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left == 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, left));
+                if (n < 0) {
+                    throw new EOFException("truncated compressed object");
+                }
+                left -= n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * 写入 lz 格式的一块: varint(原始长度) | varint(压缩后长度) | 内容，
+     * 两个长度相等时内容未压缩
+     */
+    private static void writeLzBlock(OutputStream out, byte[] b, int off, int len)
+            throws IOException {
+        byte[] packed = Lz.compress(b, off, len);
+        writeVarint(out, len);
+        if (packed.length < len) {
+            writeVarint(out, packed.length);
+            out.write(packed);
+        } else {
+            writeVarint(out, len);
+            out.write(b, off, len);
+        }
+    }
+
+    private static InputStream inflate(InputStream raw) {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(raw, inflater, SAMPLE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("truncated compressed object");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 按位置读取文件中的一段
+     */
+    private static final class SliceInputStream extends InputStream {
+        private final FileChannel in;
+        private long position;
+        private final long end;
+
+        SliceInputStream(FileChannel in, long offset, long length) {
+            this.in = in;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int n = in.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)),
+                    position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 按块写入 lz 格式
+     */
+    private static final class LzOutputStream extends FilterOutputStream {
+        private final byte[] block = new byte[SAMPLE];
+        private int size;
+
+        LzOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            block[size++] = (byte) b;
+            if (size == block.length) {
+                flushBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, block.length - size);
+                System.arraycopy(b, off, block, size, n);
+                size += n;
+                off += n;
+                len -= n;
+                if (size == block.length) {
+                    flushBlock();
+                }
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (size > 0) {
+                writeLzBlock(out, block, 0, size);
+                size = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBlock();
+            out.close();
+        }
+    }
+
+    private static final class LzInputStream extends InputStream {
+        private final InputStream in;
+        private byte[] block = new byte[0];
+        private int position;
+
+        LzInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position == block.length) {
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean nextBlock() throws IOException {
+            in.mark(1);
+            if (in.read() < 0) {
+                return false;
+            }
+            in.reset();
+            int raw = (int) readVarint(in);
+            int packed = (int) readVarint(in);
+            byte[] data = in.readNBytes(packed);
+            if (data.length < packed) {
+                throw new EOFException("truncated compressed object");
+            }
+            if (packed == raw) {
+                block = data;
+            } else {
+                block = new byte[raw];
+                try {
+                    Lz.decompress(data, 0, block, 0, raw);
+                } catch (DataFormatException | IndexOutOfBoundsException excp) {
+                    throw new IOException("corrupt lz block");
+                }
+            }
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * 一个块内的 LZ77: 用 4 字节的哈希表找前面出现过的相同内容。
+     * 编码为若干 varint(字面量长度) | 字面量 | varint(匹配长度) | varint(距离)，
+     * 匹配长度为 0 表示结束。
+     */
+    static final class Lz {
+        private static final int HASH_BITS = 14;
+        private static final int MIN_MATCH = 4;
+
+        static byte[] compress(byte[] src, int off, int len) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 16);
+            int[] table = new int[1 << HASH_BITS];
+            Arrays.fill(table, -1);
+            int end = off + len;
+            int anchor = off;
+            int i = off;
+            try {
+                while (i + MIN_MATCH <= end) {
+                    int h = hash(src, i);
+                    int ref = table[h];
+                    table[h] = i;
+                    if (ref >= 0 && same(src, ref, i)) {
+                        int m = MIN_MATCH;
+                        while (i + m < end && src[ref + m] == src[i + m]) {
+                            m++;
+                        }
+                        writeVarint(out, i - anchor);
+                        out.write(src, anchor, i - anchor);
+                        writeVarint(out, m);
+                        writeVarint(out, i - ref);
+                        i += m;
+                        anchor = i;
+                    } else {
+                        i++;
+                    }
+                }
+                writeVarint(out, end - anchor);
+                out.write(src, anchor, end - anchor);
+                writeVarint(out, 0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * 把 SRC 中从 OFF 开始的一块解压到 DST 中从 START 开始的 RAW 个字节
+         */
+        static void decompress(byte[] src, int off, byte[] dst, int start, int raw)
+                throws DataFormatException {
+            int[] pos = {off};
+            int o = start;
+            while (true) {
+                int lit = varint(src, pos);
+                System.arraycopy(src, pos[0], dst, o, lit);
+                pos[0] += lit;
+                o += lit;
+                int m = varint(src, pos);
+                if (m == 0) {
+                    break;
+                }
+                int from = o - varint(src, pos);
+                if (from < start) {
+                    throw new DataFormatException("corrupt lz block");
+                }
+                if (o - from >= m) {
+                    System.arraycopy(dst, from, dst, o, m);
+                    o += m;
+                } else {
+                    for (int k = 0; k < m; k++) {
+                        dst[o++] = dst[from + k];
+                    }
+                }
+            }
+            if (o != start + raw) {
+                throw new DataFormatException("corrupt lz block");
+            }
+        }
+
+        private static int hash(byte[] b, int i) {
+            int v = (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16
+                    | (b[i + 3] & 0xff) << 24;
+            return (v * 0x9e3779b1) >>> (32 - HASH_BITS);
+        }
+
+        private static boolean same(byte[] b, int a, int c) {
+            return b[a] == b[c] && b[a + 1] == b[c + 1] && b[a + 2] == b[c + 2]
+                    && b[a + 3] == b[c + 3];
+        }
+
+        private static int varint(byte[] src, int[] pos) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = src[pos[0]++] & 0xff;
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
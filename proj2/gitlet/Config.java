@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 仓库的配置项，保存在 .gitlet/config 中，格式是 java properties。
+ * <p>
+ * 同一个配置项按以下顺序查找，先找到的生效:
+ * <br>系统属性 gitlet.KEY，例如 -Dgitlet.checkout.workers=4
+ * <br>环境变量 GITLET_KEY，点号换成下划线，例如 GITLET_CHECKOUT_WORKERS=4
+ * <br>.gitlet/config 中的 KEY
+ *
+ * @author SouvLithe
+ */
+public class Config {
+    /**
+     * checkout/reset 恢复文件时使用的线程数
+     */
+    public static final String CHECKOUT_WORKERS = "checkout.workers";
+
+    /**
+     * checkout/reset 同时恢复的文件数上限，默认等于 checkout.workers。
+     * 实际的线程数是两者中较小的一个
+     */
+    public static final String CHECKOUT_MAX_OPEN_FILES = "checkout.maxOpenFiles";
+
+    /**
+     * 已读取的 .gitlet/config
+     */
+    private static Properties file;
+
+    /**
+     * 读取时 config 文件的修改时间和长度，daemon 中文件变化后重新读取
+     */
+    private static long loadedModified = -1;
+    private static long loadedLength = -1;
+
+    /**
+     * @return 配置项 KEY 的值，没有配置时返回 null
+     */
+    public static String get(String key) {
+        String value = System.getProperty("gitlet." + key);
+        if (value == null) {
+            value = System.getenv("GITLET_" + key.replace('.', '_').toUpperCase(Locale.ROOT));
+        }
+        if (value == null) {
+            value = load().getProperty(key);
+        }
+        return value;
+    }
+
+    /**
+     * @return 配置项 KEY 的整数值，没有配置或不是正整数时返回 DEFAULT
+     */
+    public static int getInt(String key, int defaultValue) {
+        return getInt(key, defaultValue, 1);
+    }
+
+    /**
+     * 0 有意义的配置项使用，例如 gc.pruneExpire=0 表示立即删除
+     *
+     * @return 配置项 KEY 的整数值，没有配置、是负数或无法解析时返回 DEFAULT
+     */
+    public static int getNonNegativeInt(String key, int defaultValue) {
+        return getInt(key, defaultValue, 0);
+    }
+
+    private static int getInt(String key, int defaultValue, int min) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int ret = Integer.parseInt(value.trim());
+            return ret >= min ? ret : defaultValue;
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    private static Properties load() {
+        File config = Repository.CONFIG;
+        if (file == null || config.lastModified() != loadedModified
+                || config.length() != loadedLength) {
+            loadedModified = config.lastModified();
+            loadedLength = config.length();
+            file = new Properties();
+            if (Repository.CONFIG.isFile()) {
+                try (Reader in = new FileReader(Repository.CONFIG)) {
+                    file.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return file;
+    }
+}
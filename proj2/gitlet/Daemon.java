@@ -0,0 +1,238 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * 常驻的 gitlet 进程，省去每条命令启动 JVM 和冷缓存的开销。
+ * <p>
+ * `gitlet daemon` 在 .gitlet/daemon.sock 上监听 Unix domain socket，
+ * 设置了环境变量 GITLET_DAEMON 的 gitlet 会把参数和当前目录转发给它，
+ * 再原样输出它返回的 stdout、stderr 和退出码；连接不上时照常在本进程中执行。
+ * 请求逐个执行，命令之间 commit 图、pack 索引、ObjectCache 等都保持在内存中，
+ * 磁盘上的文件被其他进程修改后按 stat 信息重新读取。
+ * `gitlet daemon --watch` 还会启用 Watcher，用文件系统事件维护工作区的状态。
+ * <p>
+ * 请求: MAGIC | 当前目录 | 参数个数 | 参数...
+ * <br>响应: 退出码 | stdout | stderr
+ * <br>字符串和字节串都以 4 字节长度开头。
+ *
+ * @author SouvLithe
+ */
+public class Daemon {
+    private static final int MAGIC = 0x47444d4e;
+
+    /**
+     * 当前目录与 daemon 不同时返回的退出码，客户端改为在本进程中执行
+     */
+    private static final int RUN_LOCALLY = -1;
+
+    /**
+     * HelperMethods.exit 在 daemon 中抛出这个异常代替 System.exit
+     */
+    static class Exit extends RuntimeException {
+        private static final long serialVersionUID = 3207461805393725148L;
+
+        Exit() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 是否正在 daemon 中执行一条命令
+     */
+    private static boolean serving;
+
+    public static boolean isServing() {
+        return serving;
+    }
+
+    private static File socketFile(File cwd) {
+        return Utils.join(cwd, ".gitlet", "daemon.sock");
+    }
+
+    /**
+     * 客户端: 设置了 GITLET_DAEMON 且当前仓库有 daemon 时，把 ARGS 交给它执行
+     *
+     * @return daemon 返回的退出码，没有可用的 daemon 时返回 null
+     */
+    public static Integer forward(String[] args) {
+        if (System.getenv("GITLET_DAEMON") == null) {
+            return null;
+        }
+        File cwd = new File(System.getProperty("user.dir"));
+        return send(socketFile(cwd), cwd, args);
+    }
+
+    private static Integer send(File socket, File cwd, String[] args) {
+        if (!socket.exists()) {
+            return null;
+        }
+        try (SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(ch));
+            out.writeInt(MAGIC);
+            writeString(out, cwd.getCanonicalPath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+            int code = in.readInt();
+            if (code == RUN_LOCALLY) {
+                return null;
+            }
+            System.out.write(readBytes(in));
+            System.out.flush();
+            System.err.write(readBytes(in));
+            System.err.flush();
+            return code;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * 停止当前仓库的 daemon
+     */
+    public static void stop() {
+        if (send(socketFile(Repository.CWD), Repository.CWD, new String[]{"daemon", "--stop"})
+                == null) {
+            HelperMethods.exit("No daemon is running.");
+        }
+    }
+
+    /**
+     * 在当前仓库上启动 daemon，直到收到 `daemon --stop` 或 socket 文件被删除
+     *
+     * @param watch 是否启用 Watcher
+     */
+    public static void serve(boolean watch) {
+        File socket = socketFile(Repository.CWD);
+        if (watch) {
+            Watcher.start();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(socket.toPath());
+            server.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            socket.deleteOnExit();
+            String cwd = Repository.CWD.getCanonicalPath();
+            boolean running = true;
+            while (running && socket.exists()) {
+                try (SocketChannel ch = server.accept()) {
+                    running = handle(ch, cwd);
+                } catch (IOException excp) {
+                    // 客户端中途断开，继续等待下一个请求
+                }
+            }
+            Files.deleteIfExists(socket.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Watcher.stop();
+        }
+    }
+
+    /**
+     * 执行一个请求
+     *
+     * @return 收到 `daemon --stop` 时返回 false
+     */
+    private static boolean handle(SocketChannel ch, String cwd) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(ch));
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(ch));
+        if (in.readInt() != MAGIC) {
+            return true;
+        }
+        String clientCwd = readString(in);
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readString(in);
+        }
+        if (!clientCwd.equals(cwd)) {
+            out.writeInt(RUN_LOCALLY);
+            out.flush();
+            return true;
+        }
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("--stop");
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int code = stop ? 0 : run(args, stdout, stderr);
+        out.writeInt(code);
+        writeBytes(out, stdout.toByteArray());
+        writeBytes(out, stderr.toByteArray());
+        out.flush();
+        return !stop;
+    }
+
+    /**
+     * 在本进程中执行 ARGS，输出写入 STDOUT 和 STDERR。
+     * daemon 和 TimeCommands 都通过这里执行命令。
+     *
+     * @return 与单独执行时相同的退出码
+     */
+    public static int run(String[] args, ByteArrayOutputStream stdout,
+                                  ByteArrayOutputStream stderr) {
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        Charset cs = Charset.defaultCharset();
+        System.setOut(new PrintStream(stdout, true, cs));
+        System.setErr(new PrintStream(stderr, true, cs));
+        serving = true;
+        ObjectCache.shared().newGeneration();
+        Watcher.beginCommand();
+        HelperMethods.discardStagingArea();
+        IoStats.reset();
+        try {
+            Main.run(args);
+            return 0;
+        } catch (Exit excp) {
+            return 0;
+        } catch (Throwable excp) {
+            System.err.print("Exception in thread \"main\" ");
+            excp.printStackTrace();
+            return 1;
+        } finally {
+            if (IoStats.ENABLED) {
+                IoStats.print(System.err);
+                IoStats.reset();
+            }
+            serving = false;
+            System.out.flush();
+            System.err.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
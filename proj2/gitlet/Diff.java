@@ -0,0 +1,563 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 按行比较两个文本，输出 unified diff，供 gitlet-diff 使用。
+ * <p>
+ * 先去掉相同的开头和结尾，剩下的部分用 Myers O(ND) 算法求最短编辑脚本。
+ * D 超过上限时（差异很大的文件），改用 patience diff:
+ * 以两边都只出现一次的行为锚点，取锚点的最长递增子序列，再对锚点之间的区间递归。
+ * 这样大文件的开销与 N + M 近似线性，不会出现 O(N * M) 的时间或内存。
+ * <p>
+ * 文本按行切分后只保存每行的起始位置和 64 位哈希，内容留在映射的文件中，
+ * 比较时先比哈希再比字节；输出时逐个 hunk 写出，不在内存中拼接整个 diff。
+ *
+ * @author SouvLithe
+ */
+public class Diff {
+    /**
+     * hunk 前后保留的上下文行数
+     */
+    static final int CONTEXT = 3;
+
+    /**
+     * Myers 算法的 D 的上限。backtrack 需要保存每一轮的 V，内存是 O(D^2)
+     */
+    private static final int MAX_D = 1024;
+
+    /**
+     * 单个区间上 Myers 算法最多做 (N + M) * D 次比较
+     */
+    private static final long BUDGET = 50_000_000L;
+
+    /**
+     * 含有 NUL 字节的文件当作二进制文件，只检查开头这么多字节
+     */
+    private static final int BINARY_PROBE = 8000;
+
+    /**
+     * 按行切分的文本
+     */
+    public static class Text {
+        final ByteBuffer buf;
+        /**
+         * 第 i 行是 [starts[i], starts[i + 1])，包含行尾的换行符
+         */
+        int[] starts;
+        long[] hashes;
+        int lines;
+
+        Text(ByteBuffer buf) {
+            this.buf = buf;
+            int limit = buf.limit();
+            starts = new int[16];
+            hashes = new long[16];
+            int start = 0;
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < limit; i++) {
+                byte c = buf.get(i);
+                h = (h ^ (c & 0xff)) * 0x100000001b3L;
+                if (c == '\n') {
+                    addLine(start, h);
+                    start = i + 1;
+                    h = 0xcbf29ce484222325L;
+                }
+            }
+            if (start < limit) {
+                addLine(start, h);
+            }
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines + 1);
+            }
+            starts[lines] = limit;
+        }
+
+        private void addLine(int start, long hash) {
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines * 2);
+                hashes = Arrays.copyOf(hashes, lines * 2);
+            }
+            starts[lines] = start;
+            hashes[lines] = hash;
+            lines++;
+        }
+
+        public static Text of(byte[] bytes) {
+            return new Text(ByteBuffer.wrap(bytes));
+        }
+
+        /**
+         * 映射工作区文件 FILE
+         */
+        static Text of(File file) {
+            try (FileChannel ch = FileChannel.open(file.toPath())) {
+                return new Text(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * 映射 id 为 BLOBID 的 blob，BLOBID 为 null 时是空文本（/dev/null）
+         */
+        static Text ofBlob(String blobId) {
+            return blobId == null ? of(new byte[0]) : new Text(Blob.map(blobId));
+        }
+
+        int length(int i) {
+            return starts[i + 1] - starts[i];
+        }
+
+        boolean binary() {
+            int n = Math.min(buf.limit(), BINARY_PROBE);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return 第 I 行与 O 的第 J 行是否相同
+         */
+        boolean same(int i, Text o, int j) {
+            if (hashes[i] != o.hashes[j] || length(i) != o.length(j)) {
+                return false;
+            }
+            int p = starts[i];
+            int q = o.starts[j];
+            int end = starts[i + 1];
+            while (p < end) {
+                if (buf.get(p++) != o.buf.get(q++)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 把第 [FROM, TO) 行原样写入 OUT
+         */
+        void write(OutputStream out, int from, int to) throws IOException {
+            byte[] chunk = new byte[8192];
+            int end = starts[to];
+            for (int p = starts[from]; p < end; p += chunk.length) {
+                int len = Math.min(chunk.length, end - p);
+                buf.get(p, chunk, 0, len);
+                out.write(chunk, 0, len);
+            }
+        }
+    }
+
+    /**
+     * 接收 diff 的结果: A 的 [a0, a1) 被替换为 B 的 [b0, b1)，按位置从前到后给出
+     */
+    interface Sink {
+        void change(int a0, int a1, int b0, int b1);
+    }
+
+    /**
+     * 比较 A 和 B，把不同的区间依次交给 SINK
+     */
+    static void diff(Text a, Text b, Sink sink) {
+        new Diff(a, b, sink).range(0, a.lines, 0, b.lines);
+    }
+
+    /**
+     * @return A 和 B 不同的区间，每项是 {a0, a1, b0, b1}
+     */
+    public static List<int[]> changes(Text a, Text b) {
+        List<int[]> ret = new ArrayList<>();
+        diff(a, b, (a0, a1, b0, b1) -> ret.add(new int[]{a0, a1, b0, b1}));
+        return ret;
+    }
+
+    private final Text a;
+    private final Text b;
+    private final Sink sink;
+
+    private Diff(Text a, Text b, Sink sink) {
+        this.a = a;
+        this.b = b;
+        this.sink = sink;
+    }
+
+    private void range(int a0, int a1, int b0, int b1) {
+        while (a0 < a1 && b0 < b1 && a.same(a0, b, b0)) {
+            a0++;
+            b0++;
+        }
+        while (a0 < a1 && b0 < b1 && a.same(a1 - 1, b, b1 - 1)) {
+            a1--;
+            b1--;
+        }
+        if (a0 == a1 || b0 == b1) {
+            if (a0 < a1 || b0 < b1) {
+                sink.change(a0, a1, b0, b1);
+            }
+            return;
+        }
+        if (!myers(a0, a1, b0, b1)) {
+            patience(a0, a1, b0, b1);
+        }
+    }
+
+    /**
+     * 在区间上执行 Myers 算法
+     *
+     * @return D 超过上限时放弃并返回 false，此时还没有输出任何结果
+     */
+    private boolean myers(int a0, int a1, int b0, int b1) {
+        int n = a1 - a0;
+        int m = b1 - b0;
+        int maxD = (int) Math.min(Math.min(MAX_D, n + m), Math.max(64, BUDGET / (n + m)));
+        int off = maxD + 1;
+        int[] v = new int[2 * maxD + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= maxD; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+                    x = v[off + k + 1];
+                } else {
+                    x = v[off + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a.same(a0 + x, b, b0 + y)) {
+                    x++;
+                    y++;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m) {
+                    backtrack(trace, d, a0, n, b0, m);
+                    return true;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, off - d, off + d + 1));
+        }
+        return false;
+    }
+
+    /**
+     * 从 (N, M) 沿每一轮保存的 V 倒推出编辑路径上的对角线段，再输出它们之间的区间
+     */
+    private void backtrack(List<int[]> trace, int dist, int a0, int n, int b0, int m) {
+        List<int[]> snakes = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = dist; d > 0; d--) {
+            int[] prev = trace.get(d - 1);
+            int k = x - y;
+            boolean down = k == -d
+                    || (k != d && prev[k - 1 + d - 1] < prev[k + 1 + d - 1]);
+            int pk = down ? k + 1 : k - 1;
+            int px = prev[pk + d - 1];
+            int py = px - pk;
+            int sx = down ? px : px + 1;
+            if (x > sx) {
+                snakes.add(new int[]{sx, sx - k, x - sx});
+            }
+            x = px;
+            y = py;
+        }
+        if (x > 0) {
+            snakes.add(new int[]{0, 0, x});
+        }
+        int ca = 0;
+        int cb = 0;
+        for (int i = snakes.size() - 1; i >= 0; i--) {
+            int[] s = snakes.get(i);
+            if (s[0] > ca || s[1] > cb) {
+                sink.change(a0 + ca, a0 + s[0], b0 + cb, b0 + s[1]);
+            }
+            ca = s[0] + s[2];
+            cb = s[1] + s[2];
+        }
+        if (ca < n || cb < m) {
+            sink.change(a0 + ca, a0 + n, b0 + cb, b0 + m);
+        }
+    }
+
+    /**
+     * patience diff: 以两边各只出现一次的相同行为锚点，对锚点之间的区间递归。
+     * 没有锚点的区间整体作为一处修改。
+     */
+    private void patience(int a0, int a1, int b0, int b1) {
+        int[][] anchors = lis(uniquePairs(a0, a1, b0, b1));
+        if (anchors.length == 0) {
+            sink.change(a0, a1, b0, b1);
+            return;
+        }
+        int pa = a0;
+        int pb = b0;
+        for (int[] p : anchors) {
+            range(pa, p[0], pb, p[1]);
+            pa = p[0] + 1;
+            pb = p[1] + 1;
+        }
+        range(pa, a1, pb, b1);
+    }
+
+    /**
+     * @return 在两个区间中各只出现一次的行，每项是 {A 中的行号, B 中的行号}，按 A 中的顺序。
+     * 两边的哈希各自排序后找出只出现一次的值再求交集，额外内存约为每行 8 字节
+     */
+    private int[][] uniquePairs(int a0, int a1, int b0, int b1) {
+        long[] common = intersect(uniqueHashes(a.hashes, a0, a1),
+                uniqueHashes(b.hashes, b0, b1));
+        if (common.length == 0) {
+            return new int[0][];
+        }
+        int[] posB = new int[common.length];
+        for (int j = b0; j < b1; j++) {
+            int k = Arrays.binarySearch(common, b.hashes[j]);
+            if (k >= 0) {
+                posB[k] = j;
+            }
+        }
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = a0; i < a1; i++) {
+            int k = Arrays.binarySearch(common, a.hashes[i]);
+            if (k >= 0 && a.same(i, b, posB[k])) {
+                pairs.add(new int[]{i, posB[k]});
+            }
+        }
+        return pairs.toArray(new int[0][]);
+    }
+
+    /**
+     * @return HASHES 中下标在 [FROM, TO) 的值里只出现一次的那些，升序
+     */
+    private static long[] uniqueHashes(long[] hashes, int from, int to) {
+        long[] sorted = Arrays.copyOfRange(hashes, from, to);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; ) {
+            int j = i + 1;
+            while (j < sorted.length && sorted[j] == sorted[i]) {
+                j++;
+            }
+            if (j == i + 1) {
+                sorted[n++] = sorted[i];
+            }
+            i = j;
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * @return 升序数组 X 和 Y 的公共元素，升序
+     */
+    private static long[] intersect(long[] x, long[] y) {
+        long[] ret = new long[Math.min(x.length, y.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+            if (x[i] < y[j]) {
+                i++;
+            } else if (x[i] > y[j]) {
+                j++;
+            } else {
+                ret[n++] = x[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(ret, n);
+    }
+
+    /**
+     * @return PAIRS 中按 B 的行号递增的最长子序列
+     */
+    private static int[][] lis(int[][] pairs) {
+        int n = pairs.length;
+        int[] tails = new int[n];
+        int[] prev = new int[n];
+        int len = 0;
+        for (int i = 0; i < n; i++) {
+            int lo = 0;
+            int hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs[tails[mid]][1] < pairs[i][1]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == len) {
+                len++;
+            }
+        }
+        int[][] ret = new int[len][];
+        for (int i = len - 1, k = len > 0 ? tails[len - 1] : -1; i >= 0; i--, k = prev[k]) {
+            ret[i] = pairs[k];
+        }
+        return ret;
+    }
+
+    /**
+     * 比较 id 为 OLDID 和 NEWID 的两个 blob，输出 NAME 的 unified diff。
+     * id 为 null 表示文件不存在。
+     */
+    public static void blobs(String name, String oldId, String newId) {
+        print(name, oldId == null, newId == null, Text.ofBlob(oldId), Text.ofBlob(newId));
+    }
+
+    /**
+     * 比较 id 为 OLDID 的 blob 和工作区的文件 FILE
+     */
+    public static void blobAndFile(String name, String oldId, File file) {
+        print(name, oldId == null, false, Text.ofBlob(oldId), Text.of(file));
+    }
+
+    /**
+     * 比较两个 commit 之间改变的文件，按路径排序
+     */
+    public static void commits(Commit from, Commit to) {
+        TreeMap<String, String[]> changed = new TreeMap<>();
+        Commit.changes(from, to, (path, oldId, newId) ->
+                changed.put(path, new String[]{oldId, newId}));
+        changed.forEach((path, ids) -> blobs(path, ids[0], ids[1]));
+    }
+
+    /**
+     * 比较 commit BASE 与工作区，包括 BASE 中的文件和暂存添加的文件
+     */
+    public static void workingTree(Commit base) {
+        Index index = HelperMethods.readStagingArea();
+        TreeSet<String> paths = new TreeSet<>(base.getBlobs().keySet());
+        index.getAdded().keySet().forEach(f -> paths.add(Repository.relativePath(new File(f))));
+        for (String path : paths) {
+            workingFile(base, Repository.workingFile(path));
+        }
+    }
+
+    /**
+     * 比较 commit BASE 中的 FILE 与工作区中的 FILE
+     */
+    public static void workingFile(Commit base, File file) {
+        String oldId = base.getBlob(file);
+        String name = Repository.relativePath(file);
+        if (!file.exists()) {
+            if (oldId != null) {
+                blobs(name, oldId, null);
+            }
+            return;
+        }
+        if (!HelperMethods.readStagingArea().blobId(file).equals(oldId)) {
+            blobAndFile(name, oldId, file);
+        }
+    }
+
+    private static void print(String name, boolean created, boolean deleted, Text a, Text b) {
+        PrintStream out = System.out;
+        String header = "diff --gitlet a/" + name + " b/" + name + "\n";
+        if (a.binary() || b.binary()) {
+            out.print(header);
+            out.print("Binary files " + (created ? "/dev/null" : "a/" + name) + " and "
+                    + (deleted ? "/dev/null" : "b/" + name) + " differ\n");
+            out.flush();
+            return;
+        }
+        header += "--- " + (created ? "/dev/null" : "a/" + name) + "\n"
+                + "+++ " + (deleted ? "/dev/null" : "b/" + name) + "\n";
+        Unified u = new Unified(a, b, out, header);
+        diff(a, b, u);
+        u.finish();
+    }
+
+    /**
+     * 把 diff 的结果写成 unified 格式。相距不超过 2 * CONTEXT 行的修改合并为一个 hunk，
+     * 每个 hunk 结束时立即写出。
+     */
+    static class Unified implements Sink {
+        private final Text a;
+        private final Text b;
+        private final PrintStream out;
+        private String header;
+        private final List<int[]> hunk = new ArrayList<>();
+        private byte[] line = new byte[256];
+
+        Unified(Text a, Text b, PrintStream out, String header) {
+            this.a = a;
+            this.b = b;
+            this.out = out;
+            this.header = header;
+        }
+
+        @Override
+        public void change(int a0, int a1, int b0, int b1) {
+            if (!hunk.isEmpty() && a0 - hunk.get(hunk.size() - 1)[1] > 2 * CONTEXT) {
+                flush();
+            }
+            hunk.add(new int[]{a0, a1, b0, b1});
+        }
+
+        void finish() {
+            if (!hunk.isEmpty()) {
+                flush();
+            }
+            out.flush();
+        }
+
+        private void flush() {
+            if (header != null) {
+                out.print(header);
+                header = null;
+            }
+            int[] first = hunk.get(0);
+            int[] last = hunk.get(hunk.size() - 1);
+            int startA = Math.max(0, first[0] - CONTEXT);
+            int endA = Math.min(a.lines, last[1] + CONTEXT);
+            int startB = first[2] - (first[0] - startA);
+            int endB = last[3] + (endA - last[1]);
+            out.print("@@ -" + range(startA, endA - startA) + " +"
+                    + range(startB, endB - startB) + " @@\n");
+            int cur = startA;
+            for (int[] c : hunk) {
+                lines(a, ' ', cur, c[0]);
+                lines(a, '-', c[0], c[1]);
+                lines(b, '+', c[2], c[3]);
+                cur = c[1];
+            }
+            lines(a, ' ', cur, endA);
+            hunk.clear();
+        }
+
+        private static String range(int start, int len) {
+            if (len == 1) {
+                return String.valueOf(start + 1);
+            }
+            return (len == 0 ? start : start + 1) + "," + len;
+        }
+
+        private void lines(Text t, char prefix, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int len = t.length(i);
+                if (line.length < len) {
+                    line = new byte[Math.max(len, line.length * 2)];
+                }
+                t.buf.get(t.starts[i], line, 0, len);
+                out.write(prefix);
+                out.write(line, 0, len);
+                if (len == 0 || line[len - 1] != '\n') {
+                    out.print("\n\\ No newline at end of file\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.BRANCHES_DIR;
+
+/**
+ * gitlet-gc: 删除不再可达的对象。
+ * <p>
+ * 从所有分支（包括 fetch 得到的远程分支）、HEAD 和暂存区出发，
+ * 用 BitmapIndex 求出可达的 commit 以及它们引用的 tree 和 blob（包括大文件的各块），其余对象被删除；
+ * 只含有可达对象的 pack 保持不变，其他 pack 只保留可达对象重写。
+ * <p>
+ * 修改时间在 gc.pruneExpire 秒（默认两周）以内的对象不会被删除，
+ * 其中的 commit 也作为标记的起点，这样其他命令刚写入、还没有被分支引用的对象是安全的。
+ * 删除之后重写 commit journal、commit 图和信息索引，使它们只含有保留下来的 commit，
+ * 并按新的 commit 图重新生成位图。
+ *
+ * @author SouvLithe
+ */
+public class Gc {
+    /**
+     * 宽限期的配置项，单位是秒
+     */
+    public static final String PRUNE_EXPIRE = "gc.pruneExpire";
+
+    private static final int DEFAULT_EXPIRE = (int) TimeUnit.DAYS.toSeconds(14);
+
+    /**
+     * 执行 gc
+     *
+     * @param now 为 true 时不使用宽限期，删除所有不可达的对象
+     */
+    public static void gc(boolean now) {
+        ObjectStore store = ObjectStore.local();
+        CommitGraph graph = CommitGraph.local();
+        long expire = now ? 0 : TimeUnit.SECONDS.toMillis(Config.getNonNegativeInt(PRUNE_EXPIRE,
+                DEFAULT_EXPIRE));
+        long cutoff = System.currentTimeMillis() - expire;
+
+        List<String> roots = Branch.heads(BRANCHES_DIR);
+        roots.add(HelperMethods.readHEADContent());
+        Set<String> keep = new HashSet<>();
+        for (String id : HelperMethods.readStagingArea().getAdded().values()) {
+            keep.add(id);
+            if (ChunkedBlob.isChunked(store, id)) {
+                keep.addAll(ChunkedBlob.read(id, Repository.OBJECTS_DIR).chunks());
+            }
+        }
+        for (String id : store.idsNewerThan(cutoff)) {
+            keep.add(id);
+            if (Commit.isCommit(store, id)) {
+                roots.add(id);
+            }
+        }
+
+        BitmapIndex.Reach reach = BitmapIndex.local().reach(roots);
+        List<String> commits = reach.commits();
+        keep.addAll(commits);
+        keep.addAll(reach.objects());
+        long freed = store.prune(keep, cutoff);
+
+        Set<String> kept = new HashSet<>(commits);
+        CommitJournal.rewrite(CommitJournal.ids().filter(kept::contains)
+                .collect(Collectors.toList()));
+        graph.rebuild(commits);
+        BitmapIndex.write(Repository.GITLET_DIR, Branch.heads(BRANCHES_DIR));
+        MessageIndex.rebuild();
+        System.out.printf("Reclaimed %d bytes.%n", freed);
+    }
+}
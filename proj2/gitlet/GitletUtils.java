@@ -31,6 +31,8 @@ public class GitletUtils {
     /**
      * Command 'add + fileName'.
      * to add file to staging for addition
+     * <p>
+     * or  `add [directory]` to add every file under the directory.
      */
     public static void add(String[] args) {
         judgeCommand(args, 1);
@@ -38,6 +40,15 @@ public class GitletUtils {
         if (!inFile.exists()) {
             exit("File does not exist.");
         }
+        if (isGitletPath(relativePath(inFile))) {
+            exit("Cannot add files in the .gitlet directory.");
+        }
+        if (inFile.isDirectory()) {
+            for (String path : workingFiles(inFile)) {
+                readStagingArea().add(workingFile(path));
+            }
+            return;
+        }
         // 1st_test 这里也有问题
         readStagingArea().add(inFile);
     }
@@ -101,10 +112,21 @@ public class GitletUtils {
     /**
      * Command 'log'
      * to print logs of current commit tree
+     * <p>
+     * or  `log [commit id]` to start from the given commit.
      */
     public static void log(String[] args) {
-        judgeCommand(args, 0);
-        Log.log(readHEADAsCommit());
+        exitUnlessRepoExists();
+        judgeOperands(0, 1, args);
+        if (args.length == 1) {
+            Log.log(readHEADAsCommit());
+            return;
+        }
+        Commit commit = Commit.findWithUid(args[1]);
+        if (commit == null) {
+            exit("No commit with that id exists.");
+        }
+        Log.log(commit);
     }
 
     /**
@@ -129,16 +151,64 @@ public class GitletUtils {
      * Command 'find + message'
      * Prints out the ids of all commits that have the given commit message,
      * one per line.
+     * <p>
+     * or  `find --word [word]` to find commits whose message contains the word.
      */
     public static void find(String[] args) {
-        judgeCommand(args, 1);
-        List<String> uid = Commit.findWithMessage(args[1]);
+        exitUnlessRepoExists();
+        judgeOperands(1, 2, args);
+        List<String> uid;
+        if (args.length == 3 && args[1].equals("--word")) {
+            uid = MessageIndex.findWord(args[2]);
+        } else if (args.length == 2) {
+            uid = Commit.findWithMessage(args[1]);
+        } else {
+            exit("Incorrect operands.");
+            return;
+        }
         if (uid.isEmpty()) {
             exit("Found no commit with that message.");
         }
         uid.forEach(System.out::println);
     }
 
+    /**
+     * Command 'diff'
+     * show changes between the head commit and the working directory.
+     * <p>
+     * or  `diff -- [file name]` for a single file,
+     * <p>
+     * or  `diff [commit id]` to compare the given commit with the working directory,
+     * <p>
+     * or  `diff [commit id] [commit id]` to compare two commits.
+     */
+    public static void diff(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(0, 2, args);
+        if (args.length == 1) {
+            Diff.workingTree(readHEADAsCommit());
+        } else if (args.length == 3 && args[1].equals("--")) {
+            Commit head = readHEADAsCommit();
+            File file = join(CWD, args[2]);
+            if (!file.exists() && head.getBlob(file) == null) {
+                exit("File does not exist.");
+            }
+            Diff.workingFile(head, file);
+        } else if (args.length == 2) {
+            Diff.workingTree(findCommit(args[1]));
+        } else {
+            Diff.commits(findCommit(args[1]), findCommit(args[2]));
+        }
+    }
+
+    private static Commit findCommit(String id) {
+        Commit commit = Commit.findWithUid(id);
+        if (commit == null) {
+            exit("No commit with that id exists.");
+        }
+        return commit;
+    }
+
     /**
      * Command 'branch [branch name]'
      * to create a branch with given name.
@@ -170,7 +240,7 @@ public class GitletUtils {
      */
     public static void reset(String[] args) {
         judgeCommand(args, 1);
-        Commit commit = toCommit(args[1]);
+        Commit commit = Commit.findWithUid(args[1]);
         if (commit == null) {
             exit("No commit with that id exists.");
         }
@@ -251,6 +321,77 @@ public class GitletUtils {
         remote.fetch(remoteName, Branch.readBranch(branchName, getRemoteBranchDir(remoteName)));
     }
 
+    /**
+     * Command 'repack'
+     * move all loose objects and existing packs into a single pack,
+     * and rebuild the reachability bitmaps.
+     */
+    public static void repack(String[] args) {
+        judgeCommand(args, 0);
+        ObjectStore.local().repack();
+        BitmapIndex.write(GITLET_DIR, Branch.heads(BRANCHES_DIR));
+    }
+
+    /**
+     * Command 'gc'
+     * delete objects that are no longer reachable from any branch or the staging area.
+     * <p>
+     * or  `gc --now` to also delete objects written within the grace period.
+     */
+    public static void gc(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(0, 1, args);
+        if (args.length == 2 && !args[1].equals("--now")) {
+            exit("Incorrect operands.");
+        }
+        Gc.gc(args.length == 2);
+    }
+
+    /**
+     * Command 'reindex'
+     * rebuild the commit message index from the commit journal.
+     */
+    public static void reindex(String[] args) {
+        judgeCommand(args, 0);
+        MessageIndex.rebuild();
+    }
+
+    /**
+     * Command 'daemon'
+     * serve gitlet commands of this repository from a resident process.
+     * <p>
+     * or  `daemon --watch` to also watch the working directory for changes,
+     * <p>
+     * or  `daemon --stop` to stop it.
+     */
+    public static void daemon(String[] args) {
+        exitUnlessRepoExists();
+        judgeOperands(0, 1, args);
+        boolean stop = args.length == 2 && args[1].equals("--stop");
+        if (Daemon.isServing() && !stop) {
+            // 转发给 daemon 的 `daemon` 命令不能在其中再启动一个 daemon
+            exit("A daemon is already running.");
+        }
+        if (args.length == 1) {
+            Daemon.serve(false);
+        } else if (args[1].equals("--watch")) {
+            Daemon.serve(true);
+        } else if (stop) {
+            Daemon.stop();
+        } else {
+            exit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Command 'migrate'
+     * rewrite a repository written with java serialization in the binary format.
+     */
+    public static void migrate(String[] args) {
+        judgeCommand(args, 0);
+        Repository.migrate();
+    }
+
     /**
      * Command 'pull [remote name] [remote branch name]'
      * Fetches branch [remote name]/[remote branch name] as for the fetch command,
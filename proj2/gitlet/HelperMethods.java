@@ -1,7 +1,7 @@
 package gitlet;
 
 import java.io.File;
-import java.util.List;
+import java.io.Serializable;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -44,22 +44,18 @@ public class HelperMethods {
     }
 
     /**
-     * 使用给定的 ID（长度为 8 或 40）进行提交操作*
+     * 使用给定的 ID（完整的 id 或唯一的 4 位以上缩写）进行提交操作*
      *
      * @param uid：提交的唯一标识符
      * @param targetDir：该提交所在的目录
      * @return 如果存在具有给定 uid 的提交，则返回该提交内容
      */
     public static Commit toCommit(String uid, File targetDir) {
-        File commit = getObject(uid, targetDir);
-        if (commit == null) {
-            return null;
-        }
-        return commit.exists() ? readObject(commit, Commit.class) : null;
+        return toObject(uid, targetDir, Commit.class);
     }
 
     /**
-     * 使用给定的 ID（长度为 8 或 40）进行提交操作*
+     * 使用给定的 ID（完整的 id 或唯一的 4 位以上缩写）进行提交操作*
      *
      * @param uid - 提交的唯一标识符
      * @return 如果存在指定的 uid，则返回该提交信息
@@ -71,40 +67,53 @@ public class HelperMethods {
     /**
      * 使用给定的 id(40-len) 生成blob
      *
-     * @param uid uid of the blob
+     * @param uid the uid of blob
      * @return the blob with given uid if exists
      */
     public static Blob toBlob(String uid) {
-        File b = getObject(uid, OBJECTS_DIR);
-        if (b == null) {
-            return null;
-        }
-        return b.exists() ? readObject(b, Blob.class) : null;
+        return toObject(uid, OBJECTS_DIR, Blob.class);
+    }
+
+    /**
+     * @return OBJECTDIR 中 id 为 UID 的 tree，不存在时返回 null
+     */
+    public static Tree toTree(String uid, File objectDir) {
+        return toObject(uid, objectDir, Tree.class);
     }
 
     /**
-     * @return object filepath
+     * @return OBJECTDIR 中 id 为 UID 的分块 blob 清单，不存在时返回 null
      */
-    private static File getObject(String uid, File objectDir) {
+    public static ChunkedBlob toChunkedBlob(String uid, File objectDir) {
+        return toObject(uid, objectDir, ChunkedBlob.class);
+    }
+
+    /**
+     * 从松散对象或 pack 中读取并解码对象。
+     * 对象内容不会改变，解码后的对象放进 ObjectCache，以 objects 目录和完整 id 为 key。
+     *
+     * @return 对象，不存在时返回 null
+     */
+    private static <T extends Serializable> T toObject(String uid, File objectDir, Class<T> type) {
         if (uid == null || uid.isEmpty()) {
             return null;
         }
-        File obj = join(objectDir, uid.substring(0, 2));
-        String rest = getObjectName(uid);
-        if (uid.length() == 8) {
-            List<String> objects = plainFilenamesIn(obj);
-            if (objects == null) {
-                return null;
-            }
-            for (String commit : objects) {
-                if (commit.substring(0, 6).equals(rest)) {
-                    obj = join(obj, commit);
-                    break;
-                }
+        ObjectCache cache = ObjectCache.shared();
+        String prefix = objectDir.getAbsolutePath() + ":";
+        if (uid.length() == UID_LENGTH) {
+            T cached = cache.get(prefix + uid, type);
+            if (cached != null) {
+                return cached;
             }
-        } else {
-            obj = join(obj, rest);
         }
+        ObjectStore store = ObjectStore.of(objectDir);
+        String id = store.resolve(uid);
+        byte[] data = id == null ? null : store.read(id);
+        if (data == null) {
+            return null;
+        }
+        T obj = Codec.decode(data, type);
+        cache.put(prefix + id, obj, data.length);
         return obj;
     }
 
@@ -115,6 +124,10 @@ public class HelperMethods {
         if (message != null) {
             System.out.println(message);
         }
+        flushStagingArea();
+        if (Daemon.isServing()) {
+            throw new Daemon.Exit();
+        }
         System.exit(0);
     }
 
@@ -137,21 +150,47 @@ public class HelperMethods {
     }
 
     /**
-     * @return index对象
+     * 本条命令使用的 index，命令结束时写回
+     */
+    private static Index staging;
+
+    /**
+     * @return index对象。同一条命令中总是返回同一个对象，
+     * 对它的修改在 flushStagingArea 时才写回磁盘。
      */
     public static Index readStagingArea() {
-        return readObject(INDEX, Index.class);
+        if (staging == null) {
+            staging = Index.load();
+        }
+        return staging;
+    }
+
+    /**
+     * 命令结束时把 index 的改动写回磁盘
+     */
+    public static void flushStagingArea() {
+        if (staging != null) {
+            staging.flush();
+            staging = null;
+        }
+    }
+
+    /**
+     * 丢弃没有写回的 index，命令因异常中止时使用
+     */
+    static void discardStagingArea() {
+        staging = null;
     }
 
     public static Remote readRemotes() {
-        return readObject(REMOTES, Remote.class);
+        return Codec.readObject(REMOTES, Remote.class);
     }
 
     /**
      * @return 当前branch指针.
      */
     public static Branch readHEADAsBranch() {
-        return readObject(HEAD, Branch.class);
+        return Codec.readObject(HEAD, Branch.class);
     }
 
     /**
@@ -174,7 +213,7 @@ public class HelperMethods {
      */
     public static void setHEAD(Commit commit, Branch b, File remote) {
         b.setHEADContent(commit.getUid());
-        writeObject(join(remote, "HEAD"), b);
+        Codec.writeObject(join(remote, "HEAD"), b);
         b.updateBranch();
     }
 
@@ -2,19 +2,40 @@ package gitlet;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
-import static gitlet.Utils.join;
-import static gitlet.Utils.restrictedDelete;
+import static gitlet.Utils.*;
 
 /**
  * 表示一个 gitlet index object, gitlet-add, gitlet-rm.
  * self-created
+ * <p>
+ * index 还记录了工作区文件的 stat 信息（大小、修改时间、file key）和对应的 blob id，
+ * 文件的 stat 没有变化时直接使用记录的 blob id，不再读取并计算 SHA-1。
+ * 与 git 一样，修改时间不早于 index 写入时间的记录是"racy"的：
+ * 文件可能在同一个时间戳内又被修改过，这样的记录总是重新计算。
+ * <p>
+ * 一条命令中所有的修改都只改动内存中的 index（见 HelperMethods.readStagingArea），
+ * 命令结束时由 flush 写回一次: 先写临时文件再原子地改名。
+ * index 的条目数不少于 index.journalMinEntries（默认 10000）时，
+ * 只把这次改动过的路径的最终状态追加到 index.journal，
+ * journal 超过 index 文件一半大小时再整体重写。
  *
  * @author SouvLithe
  */
-public class Index implements Serializable {
+public class Index implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = 9055898174100626286L;
+
     /**
      * The map of staged files.
      * File absolute path as KEY,
@@ -32,6 +53,53 @@ public class Index implements Serializable {
      */
     private final Set<String> tracked;
 
+    /**
+     * 文件绝对路径 -> 上次计算 blob id 时的 stat 信息。
+     * 旧版本的 index 中没有这个字段，使用时再创建。
+     */
+    private transient Map<String, Stat> stats;
+
+    /**
+     * 读取 index 时 index 文件的修改时间（纳秒），用来判断 racy 的记录
+     */
+    private transient long loadedStamp;
+
+    /**
+     * 读入之后改动过的路径，flush 时写入 journal
+     */
+    private transient Set<String> touched;
+
+    /**
+     * 读入之后是否清空过暂存区
+     */
+    private transient boolean cleared;
+
+    /**
+     * 读入之后是否有改动
+     */
+    private transient boolean dirty;
+
+    /**
+     * index 文件的长度和 CRC32，journal 只对这个版本的 index 有效
+     */
+    private transient long baseLength;
+    private transient long baseCrc;
+
+    /**
+     * 使用 journal 的最少条目数的配置项
+     */
+    public static final String JOURNAL_MIN_ENTRIES = "index.journalMinEntries";
+
+    private static final int JOURNAL_MAGIC = 0x47494a4e;
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_HEADER = 4 + 4 + 8 + 8;
+
+    /**
+     * 文件的 stat 信息以及当时的 blob id
+     */
+    record Stat(long size, long mtime, String fileKey, String blobId) {
+    }
+
     /**
      * 创建一个索引对象。
      * 索引是一个存储已归档文件、已删除文件和跟踪文件指针的对象
@@ -48,15 +116,94 @@ public class Index implements Serializable {
      * @return 当且仅当文件存在，
      * 并且其状态与给定提交的状况不一致时，该条件为真。
      */
-    public static boolean isModified(File inFile, Commit c) {
+    public boolean isModified(File inFile, Commit c) {
         if (!inFile.exists()) {
             return true;
         }
-        String current = Blob.getBlobName(inFile);
+        String current = blobId(inFile);
         String oldBlobName = c.getBlob(inFile);
         return oldBlobName == null || !oldBlobName.equals(current);
     }
 
+    /**
+     * 返回工作区文件 FILE 的 blob id。
+     * daemon 的 Watcher 确认文件没有变化过时使用它记下的 id；
+     * 否则 stat 信息与记录一致且记录不是 racy 的，直接返回记录的 id，
+     * 否则重新计算并更新记录。文件已经不存在时顺便删掉它的记录。
+     */
+    public String blobId(File file) {
+        String watched = Watcher.blobId(file);
+        if (watched != null) {
+            return watched;
+        }
+        String path = file.getAbsolutePath();
+        Stat now = stat(file);
+        Stat old = stats().get(path);
+        if (now == null && old != null) {
+            stats().remove(path);
+            touch(path);
+        }
+        if (now != null && old != null && now.size() == old.size()
+                && now.mtime() == old.mtime() && Objects.equals(now.fileKey(), old.fileKey())
+                && old.mtime() < loadedStamp) {
+            return old.blobId();
+        }
+        String id = Blob.getBlobName(file);
+        if (now != null) {
+            stats().put(path, new Stat(now.size(), now.mtime(), now.fileKey(), id));
+            touch(path);
+        }
+        Watcher.record(file, id);
+        return id;
+    }
+
+    /**
+     * @return 文件的 stat 信息，blob id 为 null；文件不存在时返回 null
+     */
+    private static Stat stat(File file) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object key = a.fileKey();
+            return new Stat(a.size(), a.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    key == null ? "" : key.toString(), null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * @return 文件的修改时间（纳秒），文件不存在时返回 0
+     */
+    static long lastModifiedNanos(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            return 0;
+        }
+    }
+
+    private Map<String, Stat> stats() {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        return stats;
+    }
+
+    private Set<String> touched() {
+        if (touched == null) {
+            touched = new HashSet<>();
+        }
+        return touched;
+    }
+
+    /**
+     * 记下路径 PATH 被改动过
+     */
+    private void touch(String path) {
+        touched().add(path);
+        dirty = true;
+    }
+
     public static boolean isModified(File inFile, Commit current, Commit target) {
         String cur = current.getBlob(inFile);
         String tar = target.getBlob(inFile);
@@ -78,10 +225,10 @@ public class Index implements Serializable {
             removed.remove(f);
         }
         if (isModified(file, HelperMethods.readHEADAsCommit())) {
-            added.put(f, new Blob(file).makeBlob());
+            added.put(f, new Blob(file, blobId(file)).makeBlob());
             tracked.add(f);
         }
-        save();
+        touch(f);
     }
 
     /**
@@ -98,29 +245,211 @@ public class Index implements Serializable {
         }
         if (!flag && isTracked(file, HelperMethods.readHEADAsCommit())) {
             removed.add(f);
-            restrictedDelete(f);
+            Repository.deleteWorkingFile(file);
             flag = true;
         }
-        save();
+        touch(f);
         return flag;
     }
 
     /**
      * 在执行 gitlet-commit 操作后，更新索引
-     * 包括added, removed, tracked,然后保存索引
+     * 包括added, removed, tracked
      */
     public void cleanStagingArea() {
         added.clear();
         removed.clear();
         tracked.clear();
-        save();
+        cleared = true;
+        dirty = true;
     }
 
     /**
-     * Write index object.
+     * 读取 index 文件，再重放 journal 中对应这个版本的改动
      */
-    public void save() {
-        Utils.writeObject(Repository.INDEX, this);
+    static Index load() {
+        byte[] base = ObjectCache.shared().readFile(Repository.INDEX);
+        Index index = Codec.decode(base, Index.class);
+        index.baseLength = base.length;
+        index.baseCrc = crc(base);
+        index.loadedStamp = lastModifiedNanos(Repository.INDEX);
+        File journal = Repository.INDEX_JOURNAL;
+        if (journal.isFile() && index.journalMatches()) {
+            index.replay(readContents(journal));
+            index.loadedStamp = Math.max(index.loadedStamp, lastModifiedNanos(journal));
+        }
+        return index;
+    }
+
+    /**
+     * 把本次命令中的改动写回磁盘，没有改动时什么也不做
+     */
+    public void flush() {
+        if (!dirty) {
+            return;
+        }
+        int entries = added.size() + removed.size() + tracked.size() + stats().size();
+        if (entries < Config.getNonNegativeInt(JOURNAL_MIN_ENTRIES, 10000) || !appendJournal()) {
+            writeFull();
+        }
+        touched().clear();
+        cleared = false;
+        dirty = false;
+    }
+
+    /**
+     * 整体重写 index 文件并删除 journal。
+     * 已删除的文件的 stat 记录在这里清理，追加 journal 时不逐个检查
+     */
+    void writeFull() {
+        stats().keySet().removeIf(p -> !join(p).exists());
+        byte[] bytes = Codec.encode(this);
+        File tmp = join(Repository.GITLET_DIR, "index.tmp");
+        writeContents(tmp, (Object) bytes);
+        try {
+            Files.move(tmp.toPath(), Repository.INDEX.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ObjectCache.shared().invalidate(Repository.INDEX);
+        Repository.INDEX_JOURNAL.delete();
+        baseLength = bytes.length;
+        baseCrc = crc(bytes);
+    }
+
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**
+     * @return 如果 journal 是对应当前 index 文件的，返回 true
+     */
+    private boolean journalMatches() {
+        File journal = Repository.INDEX_JOURNAL;
+        if (journal.length() < JOURNAL_HEADER) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(journal.toPath())) {
+            ByteBuffer head = ByteBuffer.allocate(JOURNAL_HEADER);
+            ch.read(head, 0);
+            head.flip();
+            return head.getInt() == JOURNAL_MAGIC && head.getInt() == JOURNAL_VERSION
+                    && head.getLong() == baseLength && head.getLong() == baseCrc;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * 把改动追加到 journal。
+     * 每一批是: 长度 | 内容 | CRC32，读取时遇到不完整的批次就停下。
+     *
+     * @return journal 会超过 index 文件的一半时不追加，返回 false
+     */
+    private boolean appendJournal() {
+        byte[] batch = encodeBatch();
+        File journal = Repository.INDEX_JOURNAL;
+        boolean fresh = !journal.isFile() || !journalMatches();
+        long length = (fresh ? JOURNAL_HEADER : journal.length()) + batch.length + 8;
+        if (baseLength == 0 || length > baseLength / 2) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (fresh) {
+                ch.truncate(0);
+                ch.write(ByteBuffer.allocate(JOURNAL_HEADER).putInt(JOURNAL_MAGIC)
+                        .putInt(JOURNAL_VERSION).putLong(baseLength).putLong(baseCrc).flip());
+            }
+            ByteBuffer buf = ByteBuffer.allocate(batch.length + 8);
+            buf.putInt(batch.length).put(batch).putInt((int) crc(batch)).flip();
+            ch.write(buf, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * cleared | 路径个数 | (路径 | flags | [added id] | [size | mtime | file key | blob id])*
+     * <br>每个改动过的路径写它现在的完整状态
+     */
+    private byte[] encodeBatch() {
+        Codec.Writer out = new Codec.Writer();
+        out.writeByte(cleared ? 1 : 0);
+        out.writeVarint(touched().size());
+        for (String path : new TreeSet<>(touched())) {
+            String id = added.get(path);
+            Stat st = stats().get(path);
+            out.writeString(path);
+            out.writeByte((id != null ? 1 : 0) | (removed.contains(path) ? 2 : 0)
+                    | (tracked.contains(path) ? 4 : 0) | (st != null ? 8 : 0));
+            if (id != null) {
+                out.writeId(id);
+            }
+            if (st != null) {
+                out.writeVarint(st.size());
+                out.writeVarint(st.mtime());
+                out.writeString(st.fileKey());
+                out.writeId(st.blobId());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 按顺序重放 JOURNAL 中完整的批次
+     */
+    private void replay(byte[] journal) {
+        ByteBuffer buf = ByteBuffer.wrap(journal);
+        buf.position(JOURNAL_HEADER);
+        while (buf.remaining() >= 4) {
+            int length = buf.getInt();
+            if (length < 0 || buf.remaining() < length + 4) {
+                return;
+            }
+            byte[] batch = new byte[length];
+            buf.get(batch);
+            if (buf.getInt() != (int) crc(batch)) {
+                return;
+            }
+            applyBatch(new Codec.Reader(batch, 0));
+        }
+    }
+
+    private void applyBatch(Codec.Reader in) {
+        if (in.readByte() == 1) {
+            added.clear();
+            removed.clear();
+            tracked.clear();
+        }
+        int n = in.readVarint();
+        for (int i = 0; i < n; i++) {
+            String path = in.readString();
+            int flags = in.readByte();
+            added.remove(path);
+            removed.remove(path);
+            tracked.remove(path);
+            stats().remove(path);
+            if ((flags & 1) != 0) {
+                added.put(path, in.readId());
+            }
+            if ((flags & 2) != 0) {
+                removed.add(path);
+            }
+            if ((flags & 4) != 0) {
+                tracked.add(path);
+            }
+            if ((flags & 8) != 0) {
+                long size = in.readVarlong();
+                long mtime = in.readVarlong();
+                String key = in.readString();
+                stats().put(path, new Stat(size, mtime, key, in.readId()));
+            }
+        }
     }
 
     /**
@@ -166,12 +495,54 @@ public class Index implements Serializable {
         return removed;
     }
 
+    @Override
+    public int type() {
+        return Codec.INDEX;
+    }
+
+    /**
+     * added | removed | tracked | stat paths | 每个路径的 size, mtime, file key, blob id
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writePathTable(added);
+        out.writePaths(removed);
+        out.writePaths(tracked);
+        TreeMap<String, Stat> sorted = new TreeMap<>(stats());
+        out.writePaths(sorted.keySet());
+        for (Stat st : sorted.values()) {
+            out.writeVarint(st.size());
+            out.writeVarint(st.mtime());
+            out.writeString(st.fileKey());
+            out.writeId(st.blobId());
+        }
+    }
+
+    static Index decode(Codec.Reader in) {
+        Index ret = new Index();
+        in.readPathTable(ret.added);
+        in.readPaths(ret.removed);
+        in.readPaths(ret.tracked);
+        // 没有 stat 记录的旧 index 到这里就结束了
+        if (in.position() < in.buffer().length) {
+            List<String> paths = new ArrayList<>();
+            in.readPaths(paths);
+            for (String path : paths) {
+                long size = in.readVarlong();
+                long mtime = in.readVarlong();
+                String key = in.readString();
+                ret.stats().put(path, new Stat(size, mtime, key, in.readId()));
+            }
+        }
+        return ret;
+    }
+
     /**
      * 在 staged area 中得到文件名称
      */
     public Set<String> getAddedFilenames() {
         Set<String> ret = new HashSet<>();
-        added.keySet().forEach(n -> ret.add(join(n).getName()));
+        added.keySet().forEach(n -> ret.add(Repository.relativePath(join(n))));
         return ret;
     }
 
@@ -180,7 +551,7 @@ public class Index implements Serializable {
      */
     public Set<String> getRemovedFilenames() {
         Set<String> ret = new HashSet<>();
-        removed.forEach(n -> ret.add(join(n).getName()));
+        removed.forEach(n -> ret.add(Repository.relativePath(join(n))));
         return ret;
     }
 
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 命令执行期间的 I/O 和编解码统计。
+ * <p>
+ * 配置项 io.stats（与其他配置项一样，也可以用环境变量 GITLET_IO_STATS 设置，
+ * 另外兼容 -Dgitlet.ioStats）有值时，按操作类型累计调用次数、
+ * 字节数和耗时，命令结束时输出到 stderr；值为 json 时输出一行 JSON，否则输出表格。
+ * 配置在进程中第一次用到时读取一次，daemon 中以启动时的配置为准。
+ * 单独运行时在进程退出时输出，daemon 中每条命令单独统计，输出随该命令的 stderr 返回。
+ * <p>
+ * 统计的操作可能嵌套（例如 readObject 包含 readContents 和 decode），
+ * 每一行的耗时都包含其中嵌套的操作，所以各行的耗时不能相加。
+ * listDir 的数量是列出的文件个数，其余操作是字节数。
+ * <p>
+ * 未开启时 ENABLED 是常量 false，start 和 record 都不做任何事，
+ * JIT 内联后调用处只剩下一个被消掉的分支。
+ *
+ * @author SouvLithe
+ */
+class IoStats {
+    static final int READ_CONTENTS = 0;
+    static final int WRITE_CONTENTS = 1;
+    static final int READ_OBJECT = 2;
+    static final int WRITE_OBJECT = 3;
+    static final int DECODE = 4;
+    static final int ENCODE = 5;
+    static final int STORE_READ = 6;
+    static final int STORE_WRITE = 7;
+    static final int SHA1 = 8;
+    static final int LIST_DIR = 9;
+
+    private static final String[] NAMES = {"readContents", "writeContents", "readObject",
+        "writeObject", "decode", "encode", "storeRead", "storeWrite", "sha1", "listDir"};
+
+    /**
+     * 开启统计的配置项
+     */
+    static final String KEY = "io.stats";
+
+    private static final String SETTING = System.getProperty("gitlet.ioStats",
+            Config.get(KEY));
+
+    static final boolean ENABLED = SETTING != null;
+
+    private static final boolean JSON = "json".equalsIgnoreCase(SETTING);
+
+    private static final AtomicLongArray CALLS = new AtomicLongArray(NAMES.length);
+    private static final AtomicLongArray AMOUNTS = new AtomicLongArray(NAMES.length);
+    private static final AtomicLongArray NANOS = new AtomicLongArray(NAMES.length);
+
+    /**
+     * @return 开始计时的时间，未开启时返回 0
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记一次从 START 开始的操作 OP，处理了 AMOUNT 个字节（listDir 是文件个数）
+     */
+    static void record(int op, long start, long amount) {
+        if (ENABLED) {
+            CALLS.incrementAndGet(op);
+            AMOUNTS.addAndGet(op, amount);
+            NANOS.addAndGet(op, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 清空统计，daemon 开始处理一个新的请求时调用
+     */
+    static void reset() {
+        for (int i = 0; i < NAMES.length; i++) {
+            CALLS.set(i, 0);
+            AMOUNTS.set(i, 0);
+            NANOS.set(i, 0);
+        }
+    }
+
+    /**
+     * 把统计写到 OUT，没有任何操作时什么也不写
+     */
+    static void print(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            long calls = CALLS.get(i);
+            if (calls == 0) {
+                continue;
+            }
+            String unit = i == LIST_DIR ? "entries" : "bytes";
+            if (JSON) {
+                sb.append(sb.length() == 0 ? "{" : ",");
+                sb.append(String.format("\"%s\":{\"calls\":%d,\"%s\":%d,\"nanos\":%d}",
+                        NAMES[i], calls, unit, AMOUNTS.get(i), NANOS.get(i)));
+            } else {
+                if (sb.length() == 0) {
+                    sb.append(String.format("%-14s %8s %14s %8s %10s%n", "op", "calls", "amount",
+                            "unit", "ms"));
+                }
+                sb.append(String.format("%-14s %8d %14d %8s %10.2f%n", NAMES[i], calls,
+                        AMOUNTS.get(i), unit, NANOS.get(i) / 1e6));
+            }
+        }
+        if (sb.length() > 0) {
+            out.print(JSON ? sb.append("}").append(System.lineSeparator()) : sb);
+            out.flush();
+        }
+    }
+}
@@ -16,9 +16,9 @@ public class Log {
      * 遵循第一个父提交的链接，忽略在合并提交中发现的任何第二个父提交。
      * */
     public static void log(Commit c) {
-        while (c != null) {
-            printLog(c);
-            c = Commit.findWithUid(c.getParentAsString());
+        CommitGraph graph = CommitGraph.local();
+        for (int i = graph.require(c.getUid()); i >= 0; i = graph.parent(i)) {
+            printLog(HelperMethods.toCommit(graph.idAt(i)));
         }
     }
 
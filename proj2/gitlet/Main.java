@@ -12,6 +12,24 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        Integer code = Daemon.forward(args == null ? new String[0] : args);
+        if (code != null) {
+            System.exit(code);
+        }
+        if (System.getenv("GITLET_CACHE_STATS") != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> System.err.println(ObjectCache.shared().stats())));
+        }
+        if (IoStats.ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> IoStats.print(System.err)));
+        }
+        run(args);
+    }
+
+    /**
+     * 执行一条命令，单独运行和 daemon 中都经过这里
+     */
+    static void run(String[] args) {
         if (args == null || args.length == 0) {
             // args 为空
             System.out.println("Please enter a command.");
@@ -29,6 +47,7 @@ public class Main {
             case "find" -> GitletUtils.find(args);
             case "checkout" -> GitletUtils.checkout(args);
             case "status" -> GitletUtils.status(args);
+            case "diff" -> GitletUtils.diff(args);
             case "branch" -> GitletUtils.branch(args);
             case "rm-branch" ->GitletUtils.removeBranch(args);
             case "reset" -> GitletUtils.reset(args);
@@ -38,7 +57,13 @@ public class Main {
             case "fetch" -> GitletUtils.fetch(args);
             case "pull" -> GitletUtils.pull(args);
             case "push" -> GitletUtils.push(args);
+            case "repack" -> GitletUtils.repack(args);
+            case "gc" -> GitletUtils.gc(args);
+            case "migrate" -> GitletUtils.migrate(args);
+            case "reindex" -> GitletUtils.reindex(args);
+            case "daemon" -> GitletUtils.daemon(args);
             default -> System.out.println("No command with that name exists.");
         }
+        HelperMethods.flushStagingArea();
     }
 }
@@ -1,6 +1,11 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static gitlet.CheckOut.checkoutBranch;
@@ -31,58 +36,27 @@ public class Merge {
         Commit sp = HelperMethods.toCommit(split);
         Commit cur = current.getHEADAsCommit();
         Commit tar = given.getHEADAsCommit();
-        Set<String> files = new HashSet<>(cur.getBlobs().keySet());
-        files.addAll(tar.getBlobs().keySet());
-        List<String> cwd = plainFilenamesIn(Repository.CWD);
-        if (cwd != null) {
-            cwd.forEach(n -> files.add(join(Repository.CWD, n).getAbsolutePath()));
-        }
+        // files unchanged on both sides since the split point are left as they are,
+        // so only the paths changed on either side are merged
+        Set<String> files = new TreeSet<>();
+        Commit.changes(sp, cur, (path, oldId, newId) -> files.add(path));
+        Commit.changes(sp, tar, (path, oldId, newId) -> files.add(path));
         String msg = "Merged " + given.getName() + " into " + current.getName() + ".";
         doMerge(files, sp, cur, tar, msg);
     }
 
     /**
-     * @return the uid of the first of split point between two branches
+     * @return the uid of the split point between two branches,
+     * computed on the commit graph without reading commit objects
      */
     private static String getSplitPoint(Branch current, Branch given) {
-        List<Commit> splits = new ArrayList<>();
-        Set<String> commits = new HashSet<>();
-        dfs(current.getHEADAsCommit(), commits, splits);
-        dfs(given.getHEADAsCommit(), commits, splits);
-        return splits.stream()
-                .max(Comparator.comparing(Commit::getDate))
-                .get()
-                .getUid();
-    }
-
-    /**
-     * add all ancestors of current commit to a set
-     *
-     * @param commits a set stores all the ancestors commits, including self
-     */
-    public static void findAllAncestors(Commit b, Set<String> commits) {
-        dfs(b, commits, null);
-    }
-
-    private static void dfs(Commit b, Set<String> commits, List<Commit> splits) {
-        if (b == null) {
-            return;
-        }
-        if (commits.contains(b.getUid())) {
-            if (splits != null) {
-                splits.add(b);
-            }
-            return;
-        }
-        commits.add(b.getUid());
-        dfs(b.getParentAsCommit(), commits, splits);
-        dfs(b.getSecondParentAsCommit(), commits, splits);
+        return CommitGraph.local().mergeBase(current.getHEADAsString(), given.getHEADAsString());
     }
 
     private static void doMerge(Set<String> files, Commit split,
                                 Commit current, Commit given, String msg) {
         Index idx = HelperMethods.readStagingArea();
-        files.forEach(f -> merge(split, current, given, idx, join(f)));
+        files.forEach(f -> merge(split, current, given, idx, Repository.workingFile(f)));
         new Commit(msg, current.getUid(), given.getUid()).makeCommit();
     }
 
@@ -94,7 +68,7 @@ public class Merge {
         flag = onlyModifiedInGivenBranch(f, current, given, split, idx, flag);
         flag = onlyModifiedInCurrentBranch(f, current, given, split, flag);
         flag = modifiedInSame(f, current, given, split, flag);
-        if (!flag && conflict(f, current, given, idx)) {
+        if (!flag && conflict(f, split, current, given, idx)) {
             System.out.println("Encountered a merge conflict.");
         }
     }
@@ -224,7 +198,20 @@ public class Merge {
      * or the contents of one are changed and the other file is deleted,
      * or the file was absent at the split point
      * and has different contents in the given and current branches.
-     * In this case, replace the contents of the conflicted file with<br>
+     * <p>
+     * When the file exists in both branches and is text, the two versions are merged
+     * line by line against the version at the split point (absent means empty):
+     * hunks changed on only one side, or changed identically on both, are taken as they are,
+     * and only overlapping hunks are written as<br>
+     * <br><<<<<<< HEAD
+     * <br>lines in current branch
+     * <br>=======
+     * <br>lines in given branch
+     * <br>>>>>>>><br>
+     * <br>The result is staged. Returns true if any hunk is in conflict.
+     * <p>
+     * Otherwise (one side deleted, or a binary file) the whole file is in conflict:
+     * replace the contents of the conflicted file with<br>
      * <br><<<<<<< HEAD
      * <br>contents of file in current branch
      * <br>=======
@@ -242,23 +229,112 @@ public class Merge {
      * pathological files because they don’t know the difference between
      * a line terminator and a line separator deserve what they get.
      */
-    private static boolean conflict(File file, Commit current, Commit given, Index index) {
+    private static boolean conflict(File file, Commit split, Commit current, Commit given,
+                                    Index index) {
         String cur = current.getBlob(file);
         String tar = given.getBlob(file);
         if (!Objects.equals(cur, tar)) {
-            String curContent = "";
-            String tarContent = "";
+            if (cur != null && tar != null) {
+                Diff.Text base = Diff.Text.ofBlob(split.getBlob(file));
+                Diff.Text ours = Diff.Text.ofBlob(cur);
+                Diff.Text theirs = Diff.Text.ofBlob(tar);
+                if (!base.binary() && !ours.binary() && !theirs.binary()) {
+                    boolean conflicted = mergeLines(base, ours, theirs, file);
+                    Watcher.changed(file);
+                    index.add(file);
+                    return conflicted;
+                }
+            }
+            byte[] curContent = new byte[0];
+            byte[] tarContent = new byte[0];
             if (cur != null) {
-                curContent = HelperMethods.toBlob(cur).getContent();
+                curContent = Blob.read(cur);
             }
             if (tar != null) {
-                tarContent = HelperMethods.toBlob(tar).getContent();
+                tarContent = Blob.read(tar);
             }
-            String content = "<<<<<<< HEAD\n" + curContent + "=======\n" + tarContent + ">>>>>>>\n";
-            writeContents(file, content);
+            file.getParentFile().mkdirs();
+            writeContents(file, "<<<<<<< HEAD\n", curContent, "=======\n", tarContent, ">>>>>>>\n");
+            Watcher.changed(file);
             index.add(file);
             return true;
         }
         return false;
     }
+
+    /**
+     * diff3: merges OURS and THEIRS against BASE line by line and writes the result to FILE.
+     * Changes of both sides are walked in the order of BASE; changes that overlap
+     * or touch each other form one hunk, which is in conflict
+     * unless only one side changed it or both sides ended up with the same lines.
+     *
+     * @return true if any hunk is in conflict
+     */
+    private static boolean mergeLines(Diff.Text base, Diff.Text ours, Diff.Text theirs,
+                                      File file) {
+        List<int[]> a = Diff.changes(base, ours);
+        List<int[]> b = Diff.changes(base, theirs);
+        boolean conflicted = false;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            int i = 0;
+            int j = 0;
+            int pos = 0;
+            int deltaA = 0;
+            int deltaB = 0;
+            while (i < a.size() || j < b.size()) {
+                int start = j == b.size() || (i < a.size() && a.get(i)[0] <= b.get(j)[0])
+                        ? a.get(i)[0] : b.get(j)[0];
+                int end = start;
+                int startA = start + deltaA;
+                int startB = start + deltaB;
+                int i0 = i;
+                int j0 = j;
+                while (true) {
+                    if (i < a.size() && a.get(i)[0] <= end) {
+                        int[] c = a.get(i++);
+                        end = Math.max(end, c[1]);
+                        deltaA += (c[3] - c[2]) - (c[1] - c[0]);
+                    } else if (j < b.size() && b.get(j)[0] <= end) {
+                        int[] c = b.get(j++);
+                        end = Math.max(end, c[1]);
+                        deltaB += (c[3] - c[2]) - (c[1] - c[0]);
+                    } else {
+                        break;
+                    }
+                }
+                int endA = end + deltaA;
+                int endB = end + deltaB;
+                base.write(out, pos, start);
+                if (j == j0 || (i != i0 && sameLines(ours, startA, endA, theirs, startB, endB))) {
+                    ours.write(out, startA, endA);
+                } else if (i == i0) {
+                    theirs.write(out, startB, endB);
+                } else {
+                    out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+                    ours.write(out, startA, endA);
+                    out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+                    theirs.write(out, startB, endB);
+                    out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+                    conflicted = true;
+                }
+                pos = end;
+            }
+            base.write(out, pos, base.lines);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return conflicted;
+    }
+
+    private static boolean sameLines(Diff.Text a, int a0, int a1, Diff.Text b, int b0, int b1) {
+        if (a1 - a0 != b1 - b0) {
+            return false;
+        }
+        for (int k = 0; k < a1 - a0; k++) {
+            if (!a.same(a0 + k, b, b0 + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * commit 信息的倒排索引，保存在 refs/messages 中，供 gitlet-find 使用。
+ * <p>
+ * "GMSG" | version | capacity | size
+ * <br>之后是 capacity 个槽位，每个槽位: key(8) | commit id(20)
+ * <p>
+ * 这是一张线性探测的哈希表，key 是完整信息（或信息中的单词）的哈希，
+ * 同一个 key 的多个 commit 占据探测序列上的多个槽位。
+ * 查找时从 key 的位置开始读到第一个空槽位为止，不需要读取其他 commit。
+ * 装载因子超过一半时把表扩大一倍。
+ *
+ * @author SouvLithe
+ */
+public class MessageIndex {
+    private static final int MAGIC = 0x474d5347;
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int SLOT = 8 + 20;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 把 commit C 的信息和信息中的单词加入索引
+     */
+    public static void add(Commit c) {
+        if (!file().exists()) {
+            rebuild();
+            return;
+        }
+        for (long key : keys(c.getLog())) {
+            insert(key, c.getUid());
+        }
+    }
+
+    /**
+     * @return 信息恰好为 MESSAGE 的 commit id，按提交时间排序
+     */
+    public static List<String> find(String message) {
+        List<Commit> ret = new ArrayList<>();
+        for (String id : lookup(messageKey(message))) {
+            Commit c = HelperMethods.toCommit(id);
+            if (c != null && c.getLog().equals(message)) {
+                ret.add(c);
+            }
+        }
+        return byDate(ret);
+    }
+
+    /**
+     * @return 信息中含有单词 WORD 的 commit id，按提交时间排序
+     */
+    public static List<String> findWord(String word) {
+        String token = word.toLowerCase(Locale.ROOT);
+        List<Commit> ret = new ArrayList<>();
+        for (String id : lookup(wordKey(token))) {
+            Commit c = HelperMethods.toCommit(id);
+            if (c != null && tokens(c.getLog()).contains(token)) {
+                ret.add(c);
+            }
+        }
+        return byDate(ret);
+    }
+
+    /**
+     * 探测序列中的顺序在扩容重新插入后会变，所以查找结果按提交时间排序
+     */
+    private static List<String> byDate(List<Commit> commits) {
+        commits.sort(Comparator.comparing(Commit::getDate));
+        List<String> ret = new ArrayList<>();
+        commits.forEach(c -> ret.add(c.getUid()));
+        return ret;
+    }
+
+    /**
+     * 根据 commit journal 重新建立索引
+     */
+    public static void rebuild() {
+        File tmp = join(Repository.REFS_DIR, "messages.tmp");
+        writeContents(tmp, (Object) emptyTable(INITIAL_CAPACITY));
+        CommitJournal.ids().map(HelperMethods::toCommit).forEach(c -> {
+            for (long key : keys(c.getLog())) {
+                insert(tmp, key, c.getUid());
+            }
+        });
+        replace(tmp, file());
+    }
+
+    private static File file() {
+        return Repository.MESSAGES;
+    }
+
+    private static byte[] emptyTable(int capacity) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + capacity * SLOT);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(capacity).putInt(0);
+        return buf.array();
+    }
+
+    /**
+     * @return 信息本身的 key 以及其中每个单词的 key
+     */
+    private static Set<Long> keys(String message) {
+        Set<Long> ret = new LinkedHashSet<>();
+        ret.add(messageKey(message));
+        tokens(message).forEach(t -> ret.add(wordKey(t)));
+        return ret;
+    }
+
+    /**
+     * @return 信息中的单词，转成小写
+     */
+    static Set<String> tokens(String message) {
+        Set<String> ret = new LinkedHashSet<>();
+        for (String t : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) {
+                ret.add(t);
+            }
+        }
+        return ret;
+    }
+
+    private static long messageKey(String message) {
+        return hash("m:" + message);
+    }
+
+    private static long wordKey(String token) {
+        return hash("w:" + token);
+    }
+
+    /**
+     * @return S 的 SHA-1 的前 8 个字节，0 留给空槽位
+     */
+    private static long hash(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long h = ByteBuffer.wrap(md.digest(s.getBytes(StandardCharsets.UTF_8))).getLong();
+            return h == 0 ? 1 : h;
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static void insert(long key, String id) {
+        insert(file(), key, id);
+    }
+
+    /**
+     * 在 TABLE 中加入 KEY -> ID，装载因子超过一半时先扩容
+     */
+    private static void insert(File table, long key, String id) {
+        int capacity;
+        try (FileChannel ch = FileChannel.open(table.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            ch.read(head, 0);
+            capacity = head.getInt(8);
+            int size = head.getInt(12);
+            if ((size + 1) * 2 <= capacity) {
+                int slot = probe(ch, capacity, key, null);
+                ByteBuffer rec = ByteBuffer.allocate(SLOT).putLong(key).put(hexToBytes(id));
+                ch.write(rec.flip(), HEADER + (long) slot * SLOT);
+                ch.write(ByteBuffer.allocate(4).putInt(0, size + 1), 12);
+                return;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // 文件关闭之后再扩容，扩容会用新文件替换它
+        grow(table, capacity * 2);
+        insert(table, key, id);
+    }
+
+    /**
+     * 从 KEY 的位置开始线性探测。
+     *
+     * @param found 不为 null 时收集探测路径上 key 相同的 commit id
+     * @return 探测到的第一个空槽位
+     */
+    private static int probe(FileChannel ch, int capacity, long key, List<String> found)
+            throws IOException {
+        ByteBuffer rec = ByteBuffer.allocate(SLOT);
+        int slot = (int) (mix(key) & (capacity - 1));
+        while (true) {
+            rec.clear();
+            ch.read(rec, HEADER + (long) slot * SLOT);
+            long k = rec.getLong(0);
+            if (k == 0) {
+                return slot;
+            }
+            if (k == key && found != null) {
+                byte[] id = new byte[20];
+                rec.get(8, id);
+                found.add(bytesToHex(id));
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+    }
+
+    private static long mix(long key) {
+        return key ^ (key >>> 29);
+    }
+
+    /**
+     * 把表扩大到 CAPACITY，重新插入已有的槽位
+     */
+    private static void grow(File table, int capacity) {
+        ByteBuffer old = ByteBuffer.wrap(readContents(table));
+        int oldCapacity = old.getInt(8);
+        File tmp = join(table.getParentFile(), table.getName() + ".grow");
+        writeContents(tmp, (Object) emptyTable(capacity));
+        // 从一个空槽位之后开始扫描，绕回表头的探测序列不会被拆开
+        int start = 0;
+        while (old.getLong(HEADER + start * SLOT) != 0) {
+            start++;
+        }
+        byte[] id = new byte[20];
+        for (int n = 1; n <= oldCapacity; n++) {
+            int i = (start + n) & (oldCapacity - 1);
+            long key = old.getLong(HEADER + i * SLOT);
+            if (key != 0) {
+                old.get(HEADER + i * SLOT + 8, id);
+                insert(tmp, key, bytesToHex(id));
+            }
+        }
+        replace(tmp, table);
+    }
+
+    private static void replace(File tmp, File target) {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return 索引中 KEY 对应的 commit id，索引不存在时先重建
+     */
+    private static List<String> lookup(long key) {
+        if (!file().exists()) {
+            rebuild();
+        }
+        List<String> ret = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file().toPath())) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            ch.read(head, 0);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != VERSION) {
+                throw error("Corrupt message index.");
+            }
+            probe(ch, head.getInt(8), key, ret);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return ret;
+    }
+}
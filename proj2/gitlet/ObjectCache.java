@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * 进程内共享的对象缓存，按最近使用淘汰，总大小不超过 cache.maxBytes 字节（默认 32 MiB）。
+ * <p>
+ * commit 和 blob 的内容不会改变，以 id 为 key 缓存解码后的对象；
+ * HEAD、分支、index 等文件以路径为 key 缓存文件内容，
+ * 使用时对比文件的 stat 信息，本进程通过 Codec.writeObject 写入时直接作废。
+ * <p>
+ * daemon 的每个请求是一代，上一代读入的文件还要满足与 git 相同的 racy 规则:
+ * 修改时间与读取时间相差不到一秒的文件可能在同一个时间戳内又被其他进程改过，需要重新读取。
+ *
+ * @author SouvLithe
+ */
+public class ObjectCache {
+    /**
+     * 缓存大小的配置项
+     */
+    public static final String MAX_BYTES = "cache.maxBytes";
+
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 每个缓存项额外计入的字节数，粗略估计对象本身的开销
+     */
+    private static final int OVERHEAD = 64;
+
+    private static final ObjectCache SHARED = new ObjectCache();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxBytes = -1;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private int generation;
+
+    private record Entry(Object value, long weight) {
+    }
+
+    /**
+     * 缓存的文件内容以及读取时的 stat 信息
+     */
+    private record CachedFile(long size, long mtime, Object key, long readAt, int generation,
+                              byte[] bytes) {
+    }
+
+    /**
+     * @return 进程内共享的缓存
+     */
+    public static ObjectCache shared() {
+        return SHARED;
+    }
+
+    private long maxBytes() {
+        if (maxBytes < 0) {
+            maxBytes = Config.getInt(MAX_BYTES, 32 << 20);
+        }
+        return maxBytes;
+    }
+
+    /**
+     * @return KEY 对应的对象，不在缓存中时返回 null
+     */
+    public synchronized <T> T get(String key, Class<T> type) {
+        Entry e = entries.get(key);
+        if (e == null || !type.isInstance(e.value())) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(e.value());
+    }
+
+    /**
+     * 缓存 KEY -> VALUE，WEIGHT 是它占用的字节数。
+     * 超过总大小四分之一的对象不缓存。
+     */
+    public synchronized void put(String key, Object value, long weight) {
+        weight += OVERHEAD;
+        if (weight > maxBytes() / 4) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(value, weight));
+        if (old != null) {
+            bytes -= old.weight();
+        }
+        bytes += weight;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes() && it.hasNext()) {
+            bytes -= it.next().weight();
+            it.remove();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.weight();
+        }
+    }
+
+    /**
+     * 读取 FILE 的内容。stat 信息与缓存一致时直接返回缓存的内容。
+     */
+    public byte[] readFile(File file) {
+        String key = "file:" + file.getAbsolutePath();
+        BasicFileAttributes a;
+        try {
+            a = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            remove(key);
+            return readContents(file);
+        }
+        long mtime = a.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        CachedFile c = get(key, CachedFile.class);
+        if (c != null && c.size() == a.size() && c.mtime() == mtime
+                && Objects.equals(c.key(), a.fileKey())
+                && (c.generation() == generation || mtime + RACY_NANOS < c.readAt())) {
+            return c.bytes();
+        }
+        long readAt = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        byte[] data = readContents(file);
+        put(key, new CachedFile(a.size(), mtime, a.fileKey(), readAt, generation, data),
+                data.length);
+        return data;
+    }
+
+    /**
+     * 本进程写入 FILE 后作废它的缓存
+     */
+    public void invalidate(File file) {
+        remove("file:" + file.getAbsolutePath());
+    }
+
+    /**
+     * daemon 开始处理一个新的请求
+     */
+    public synchronized void newGeneration() {
+        generation++;
+        maxBytes = -1;
+    }
+
+    /**
+     * @return 命中、未命中的次数以及当前大小
+     */
+    public synchronized String stats() {
+        return String.format("cache: hits=%d misses=%d entries=%d bytes=%d",
+                hits, misses, entries.size(), bytes);
+    }
+}
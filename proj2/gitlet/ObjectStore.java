@@ -0,0 +1,539 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * 一个 objects 目录中的对象库。
+ * 对象可能是 objects/xx/ 下的松散文件，也可能在 objects/pack/ 下的某个 pack 里，
+ * 读取时两者都会查找；写入总是写成松散对象，由 repack 迁移进 pack。
+ * 写入的对象按 compression.codec 压缩（见 Compression），read 返回的总是解压后的内容；
+ * locate 给出的是磁盘上的原始字节，pack 和传输原样拷贝，不会重新压缩。
+ *
+ * @author SouvLithe
+ */
+public class ObjectStore implements PackFile.ObjectSource {
+    /**
+     * 每个 objects 目录对应一个对象库。
+     * checkout 时多个线程会同时读取对象库，所以这里和 pack 列表都需要同步。
+     */
+    private static final Map<File, ObjectStore> STORES = new ConcurrentHashMap<>();
+
+    /**
+     * 缩写 id 的最小长度
+     */
+    static final int MIN_ABBREV = 4;
+
+    /**
+     * 内容不超过这个长度的对象读进内存再写入
+     */
+    private static final int SMALL_OBJECT = 1 << 16;
+
+    /**
+     * 一次接收的对象少于这个数时写成松散对象，否则写成 pack
+     */
+    public static final String UNPACK_LIMIT = "transfer.unpackLimit";
+
+    /**
+     * 对象库所在的目录
+     */
+    private final File objectsDir;
+
+    /**
+     * pack 目录
+     */
+    private final File packDir;
+
+    /**
+     * 已打开的 pack，pack 目录变化后重新加载
+     */
+    private List<PackFile> packs;
+
+    private long packsStamp = -1;
+
+    /**
+     * 对象内容在磁盘上的位置: FILE 中从 OFFSET 开始的 LENGTH 个字节
+     */
+    public record Slice(File file, long offset, long length) {
+    }
+
+    private ObjectStore(File objectsDir) {
+        this.objectsDir = objectsDir;
+        this.packDir = join(objectsDir, "pack");
+    }
+
+    /**
+     * @return 给定 objects 目录的对象库
+     */
+    public static ObjectStore of(File objectsDir) {
+        return STORES.computeIfAbsent(objectsDir.getAbsoluteFile(), ObjectStore::new);
+    }
+
+    /**
+     * @return 当前仓库的对象库
+     */
+    public static ObjectStore local() {
+        return of(Repository.OBJECTS_DIR);
+    }
+
+    /**
+     * @return 当前的 pack 列表，pack 目录的修改时间变化时重新打开
+     */
+    private synchronized List<PackFile> packs() {
+        long stamp = packDir.lastModified();
+        if (packs == null || stamp != packsStamp) {
+            List<PackFile> ret = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packDir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".pack") && PackFile.indexFor(join(packDir, name)).exists()) {
+                        ret.add(PackFile.open(join(packDir, name)));
+                    }
+                }
+            }
+            packs = ret;
+            packsStamp = stamp;
+        }
+        return packs;
+    }
+
+    private File looseFile(String id) {
+        return join(objectsDir, id.substring(0, 2), id.substring(2));
+    }
+
+    /**
+     * @return 对象的内容，不存在时返回 null
+     */
+    @Override
+    public byte[] read(String id) {
+        long start = IoStats.start();
+        byte[] data = readRaw(id);
+        if (data == null) {
+            return null;
+        }
+        data = Compression.decompress(data);
+        IoStats.record(IoStats.STORE_READ, start, data.length);
+        return data;
+    }
+
+    /**
+     * @return 对象在磁盘上的字节，可能是压缩过的；不存在时返回 null
+     */
+    private byte[] readRaw(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return readContents(loose);
+        }
+        for (PackFile pack : packs()) {
+            byte[] data = pack.read(id);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 对象在松散文件或 pack 中的位置，不存在时返回 null
+     */
+    @Override
+    public Slice locate(String id) {
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return new Slice(loose, 0, loose.length());
+        }
+        for (PackFile pack : packs()) {
+            Slice slice = pack.locate(id);
+            if (slice != null) {
+                return slice;
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String id) {
+        if (looseFile(id).isFile()) {
+            return true;
+        }
+        return packs().stream().anyMatch(p -> p.contains(id));
+    }
+
+    /**
+     * 把对象写成松散对象，已存在的对象不会重写
+     */
+    public void write(String id, byte[] data) {
+        if (contains(id)) {
+            return;
+        }
+        long start = IoStats.start();
+        File dir = join(objectsDir, id.substring(0, 2));
+        dir.mkdir();
+        writeContents(join(dir, id.substring(2)), (Object) Compression.compress(data));
+        IoStats.record(IoStats.STORE_WRITE, start, data.length);
+    }
+
+    /**
+     * 把 HEADER 以及 SOURCE 中从 OFFSET 开始的 LENGTH 个字节流式写成松散对象，
+     * 内容值得压缩时边读边压缩。
+     * 先写到临时文件，再原子地改名为对象文件。
+     * 小对象直接读进内存，整个压缩一次。
+     */
+    public void write(String id, byte[] header, File source, long offset, long length) {
+        if (length > SMALL_OBJECT) {
+            write(id, header, source, offset, length, true);
+            return;
+        }
+        if (contains(id)) {
+            return;
+        }
+        byte[] data = Arrays.copyOf(header, header.length + (int) length);
+        try (FileChannel in = FileChannel.open(source.toPath())) {
+            ByteBuffer buf = ByteBuffer.wrap(data, header.length, (int) length);
+            while (buf.hasRemaining()) {
+                if (in.read(buf, offset + buf.position() - header.length) < 0) {
+                    throw new IOException("unexpected end of " + source);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        write(id, data);
+    }
+
+    private void write(String id, byte[] header, File source, long offset, long length,
+                       boolean compress) {
+        if (contains(id)) {
+            return;
+        }
+        long start = IoStats.start();
+        File dir = join(objectsDir, id.substring(0, 2));
+        dir.mkdirs();
+        try {
+            Path tmp = Files.createTempFile(objectsDir.toPath(), "tmp-", "");
+            try (FileChannel in = FileChannel.open(source.toPath());
+                 FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                OutputStream stream = Channels.newOutputStream(out);
+                OutputStream compressed = compress ? Compression.output(stream,
+                        header.length + length, in, offset, length) : null;
+                if (compressed != null) {
+                    try (compressed) {
+                        compressed.write(header);
+                        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+                        for (long done = 0; done < length; buf.clear()) {
+                            buf.limit((int) Math.min(buf.capacity(), length - done));
+                            int n = in.read(buf, offset + done);
+                            if (n < 0) {
+                                throw new IOException("unexpected end of " + source);
+                            }
+                            compressed.write(buf.array(), 0, n);
+                            done += n;
+                        }
+                    }
+                } else {
+                    out.write(ByteBuffer.wrap(header));
+                    long done = 0;
+                    while (done < length) {
+                        done += in.transferTo(offset + done, length - done, out);
+                    }
+                }
+            }
+            Files.move(tmp, looseFile(id).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        IoStats.record(IoStats.STORE_WRITE, start, header.length + length);
+    }
+
+    /**
+     * 把对象 ID 从本对象库流式拷贝到 TARGET，磁盘上的字节原样拷贝
+     */
+    public void copyTo(ObjectStore target, String id) {
+        Slice slice = locate(id);
+        if (slice == null) {
+            throw error("Missing object %s.", id);
+        }
+        target.write(id, new byte[0], slice.file(), slice.offset(), slice.length(), false);
+    }
+
+    /**
+     * 把 SOURCE 中的对象 IDS 复制到本对象库。
+     * 对象个数不少于 transfer.unpackLimit（默认 100）时写成一个 pack，
+     * 内容从源文件直接流式拷贝；否则逐个写成松散对象。
+     *
+     * @return 写入的字节数
+     */
+    public long receive(List<String> ids, ObjectStore source) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        if (ids.size() < Config.getNonNegativeInt(UNPACK_LIMIT, 100)) {
+            long bytes = 0;
+            for (String id : ids) {
+                source.copyTo(this, id);
+                bytes += looseFile(id).length();
+            }
+            return bytes;
+        }
+        File pack = PackFile.write(packDir, ids, source);
+        synchronized (this) {
+            packs = null;
+        }
+        return pack.length() + PackFile.indexFor(pack).length();
+    }
+
+    /**
+     * 把 ID 补全成完整的 40 位 id。
+     * 支持完整 id 与任意 4 位以上的缩写 id。
+     *
+     * @return 完整的 id，找不到或缩写不唯一时返回 null
+     */
+    public String resolve(String id) {
+        if (id.length() == UID_LENGTH) {
+            return contains(id) ? id : null;
+        }
+        List<String> found = findPrefix(id);
+        return found.size() == 1 ? found.get(0) : null;
+    }
+
+    /**
+     * 查找以 PREFIX 开头的对象。
+     * 松散对象只需要列出 PREFIX 所在的那个 xx 目录，在排好序的文件名中二分查找；
+     * pack 中的对象在 idx 里二分查找。
+     *
+     * @return 排好序的完整 id，PREFIX 不是 4 到 40 位的十六进制串时返回空表
+     */
+    public List<String> findPrefix(String prefix) {
+        TreeSet<String> ret = new TreeSet<>();
+        if (!isAbbreviation(prefix)) {
+            return new ArrayList<>(ret);
+        }
+        String dir = prefix.substring(0, 2);
+        String rest = prefix.substring(2);
+        List<String> loose = plainFilenamesIn(join(objectsDir, dir));
+        if (loose != null) {
+            int i = Collections.binarySearch(loose, rest);
+            for (i = i < 0 ? -i - 1 : i; i < loose.size() && loose.get(i).startsWith(rest); i++) {
+                ret.add(dir + loose.get(i));
+            }
+        }
+        for (PackFile pack : packs()) {
+            ret.addAll(pack.findPrefix(prefix));
+        }
+        return new ArrayList<>(ret);
+    }
+
+    private static boolean isAbbreviation(String prefix) {
+        if (prefix.length() < MIN_ABBREV || prefix.length() > UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.digit(prefix.charAt(i), 16) < 0 || Character.isUpperCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 对象的类型（见 Codec），旧对象或不存在的对象返回 -1。
+     * 只读取（或解压）对象头部的几个字节。
+     */
+    public int typeOf(String id) {
+        Slice slice = locate(id);
+        if (slice == null || slice.length() < 3) {
+            return -1;
+        }
+        try (FileChannel in = FileChannel.open(slice.file().toPath());
+             InputStream data = Compression.open(in, slice)) {
+            return Codec.typeOf(data.readNBytes(3));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return 所有松散对象的 id
+     */
+    public List<String> looseIds() {
+        List<String> ret = new ArrayList<>();
+        File[] dirs = objectsDir.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (dirs == null) {
+            return ret;
+        }
+        for (File dir : dirs) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names != null) {
+                names.forEach(n -> ret.add(dir.getName() + n));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return 修改时间不早于 CUTOFF（毫秒）的对象: 较新的松散对象以及较新的 pack 中的所有对象
+     */
+    public List<String> idsNewerThan(long cutoff) {
+        List<String> ret = new ArrayList<>();
+        for (String id : looseIds()) {
+            if (looseFile(id).lastModified() >= cutoff) {
+                ret.add(id);
+            }
+        }
+        for (PackFile pack : packs()) {
+            if (pack.getPack().lastModified() >= cutoff) {
+                for (int i = 0; i < pack.size(); i++) {
+                    ret.add(pack.idAt(i));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 删除不在 KEEP 中且修改时间早于 CUTOFF（毫秒）的对象。
+     * 松散对象直接删除；含有这种对象的 pack 只保留其余的对象重写成新 pack。
+     *
+     * @return 释放的字节数
+     */
+    public long prune(Set<String> keep, long cutoff) {
+        long freed = 0;
+        for (String id : looseIds()) {
+            File f = looseFile(id);
+            if (!keep.contains(id) && f.lastModified() < cutoff) {
+                freed += f.length();
+                f.delete();
+                f.getParentFile().delete();
+            }
+        }
+        for (PackFile pack : new ArrayList<>(packs())) {
+            File old = pack.getPack();
+            if (old.lastModified() >= cutoff) {
+                continue;
+            }
+            List<String> live = new ArrayList<>();
+            for (int i = 0; i < pack.size(); i++) {
+                if (keep.contains(pack.idAt(i))) {
+                    live.add(pack.idAt(i));
+                }
+            }
+            if (live.size() == pack.size()) {
+                continue;
+            }
+            freed += old.length() + PackFile.indexFor(old).length();
+            if (!live.isEmpty()) {
+                File written = PackFile.write(packDir, live, this);
+                freed -= written.length() + PackFile.indexFor(written).length();
+            }
+            PackFile.indexFor(old).delete();
+            old.delete();
+            synchronized (this) {
+                packs = null;
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * 把所有松散对象和已有的 pack 合并成一个新的 pack，
+     * 然后删掉被合并的松散对象和旧 pack。
+     *
+     * @return 被打包的对象个数
+     */
+    public int repack() {
+        List<PackFile> old = new ArrayList<>(packs());
+        List<String> loose = looseIds();
+        if (loose.isEmpty() && old.size() <= 1) {
+            return old.isEmpty() ? 0 : old.get(0).size();
+        }
+        return repack(old, loose, this);
+    }
+
+    /**
+     * 把 OLD 中的 pack 和 LOOSE 中的松散对象写成一个新 pack，内容由 SOURCE 提供
+     */
+    private int repack(List<PackFile> old, List<String> loose, PackFile.ObjectSource source) {
+        List<String> ids = new ArrayList<>(loose);
+        for (PackFile pack : old) {
+            for (int i = 0; i < pack.size(); i++) {
+                ids.add(pack.idAt(i));
+            }
+        }
+        File written = PackFile.write(packDir, ids, source);
+        for (PackFile pack : old) {
+            if (!pack.getPack().equals(written)) {
+                PackFile.indexFor(pack.getPack()).delete();
+                pack.getPack().delete();
+            }
+        }
+        for (String id : loose) {
+            File f = looseFile(id);
+            f.delete();
+            f.getParentFile().delete();
+        }
+        packs = null;
+        return (int) ids.stream().distinct().count();
+    }
+
+    /**
+     * 把以 java 序列化写入的旧对象重新编码。
+     * 松散对象先写到临时文件再原子地替换原文件，中途崩溃时原文件保持完整；
+     * pack 中的对象通过一次 repack 重写。
+     */
+    public void migrate() {
+        for (String id : looseIds()) {
+            byte[] data = readContents(looseFile(id));
+            if (Codec.isLegacy(data)) {
+                replaceLoose(id, Compression.compress(Codec.migrate(data)));
+            }
+        }
+        List<PackFile> old = new ArrayList<>(packs());
+        if (!old.isEmpty()) {
+            repack(old, new ArrayList<>(), new PackFile.ObjectSource() {
+                @Override
+                public Slice locate(String id) {
+                    return null;
+                }
+
+                @Override
+                public byte[] read(String id) {
+                    byte[] data = readRaw(id);
+                    return Codec.isLegacy(data) ? Compression.compress(Codec.migrate(data)) : data;
+                }
+            });
+        }
+    }
+
+    /**
+     * 用 DATA 替换已有的松散对象 ID: 写到临时文件后原子地改名
+     */
+    private void replaceLoose(String id, byte[] data) {
+        try {
+            Path tmp = Files.createTempFile(objectsDir.toPath(), "tmp-", "");
+            writeContents(tmp.toFile(), (Object) data);
+            Files.move(tmp, looseFile(id).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
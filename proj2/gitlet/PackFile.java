@@ -0,0 +1,336 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * 一个只追加的 pack 文件以及它的有序索引。
+ * <p>
+ * pack-xxx.pack
+ * <br>├── "GPAK" | version | count
+ * <br>└── count 个条目: varint(length) | bytes，length 可以超过 2 GiB
+ * <p>
+ * pack-xxx.idx
+ * <br>├── "GIDX" | version
+ * <br>├── fanout[256]: 首字节 <= i 的对象个数
+ * <br>├── count 个 20 字节的 id，按字典序排列
+ * <br>└── count 个 8 字节的条目偏移量
+ *
+ * @author SouvLithe
+ */
+public class PackFile {
+    static final int PACK_MAGIC = 0x4750414b;
+    static final int IDX_MAGIC = 0x47494458;
+    static final int VERSION = 1;
+    static final int ID_BYTES = 20;
+    private static final int FANOUT_OFFSET = 8;
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 256 * 4;
+
+    /**
+     * pack 文件本身，条目按偏移量随机读取
+     */
+    private final File pack;
+
+    /**
+     * 内存映射的索引
+     */
+    private final MappedByteBuffer idx;
+
+    /**
+     * 该 pack 中的对象个数
+     */
+    private final int count;
+
+    private PackFile(File pack, MappedByteBuffer idx) {
+        this.pack = pack;
+        this.idx = idx;
+        if (idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != VERSION) {
+            throw error("Corrupt pack index %s.", pack.getName());
+        }
+        this.count = idx.getInt(FANOUT_OFFSET + 255 * 4);
+    }
+
+    /**
+     * 打开一个 pack，其索引文件与之同名，后缀为 .idx
+     */
+    public static PackFile open(File pack) {
+        File idxFile = indexFor(pack);
+        try (FileChannel ch = FileChannel.open(idxFile.toPath())) {
+            return new PackFile(pack, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    static File indexFor(File pack) {
+        String name = pack.getName();
+        return join(pack.getParentFile(), name.substring(0, name.length() - 5) + ".idx");
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public File getPack() {
+        return pack;
+    }
+
+    /**
+     * @return 第 i 个（按 id 排序）对象的 40 位 id
+     */
+    public String idAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        idx.get(IDS_OFFSET + i * ID_BYTES, id);
+        return bytesToHex(id);
+    }
+
+    private long offsetAt(int i) {
+        return idx.getLong(IDS_OFFSET + count * ID_BYTES + i * 8);
+    }
+
+    /**
+     * 二分查找第一个 id 不小于 KEY 的位置。
+     * fanout 表先把查找范围缩小到首字节相同的那一段。
+     */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int hi = idx.getInt(FANOUT_OFFSET + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareAt(int i, byte[] key) {
+        int base = IDS_OFFSET + i * ID_BYTES;
+        for (int k = 0; k < key.length; k++) {
+            int c = Integer.compare(idx.get(base + k) & 0xff, key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return 对象在索引中的位置，不存在时返回 -1
+     */
+    public int find(String id) {
+        byte[] key = hexToBytes(id);
+        int i = lowerBound(key);
+        return i < count && compareAt(i, key) == 0 ? i : -1;
+    }
+
+    /**
+     * 找出所有以 PREFIX（偶数长度的十六进制串）开头的对象 id。
+     */
+    public List<String> findPrefix(String prefix) {
+        List<String> ret = new ArrayList<>();
+        byte[] key = hexToBytes(prefix.substring(0, prefix.length() & ~1));
+        for (int i = lowerBound(key); i < count && compareAt(i, key) == 0; i++) {
+            String id = idAt(i);
+            if (id.startsWith(prefix)) {
+                ret.add(id);
+            }
+        }
+        return ret;
+    }
+
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * @return 给定 id 的对象内容，不存在时返回 null
+     */
+    public byte[] read(String id) {
+        int i = find(id);
+        return i < 0 ? null : readAt(i);
+    }
+
+    /**
+     * @return 对象内容在 pack 文件中的位置，不存在时返回 null
+     */
+    public ObjectStore.Slice locate(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offsetAt(i));
+            long length = readVarint(in);
+            return new ObjectStore.Slice(pack, in.getFilePointer(), length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 第 i 个对象的全部内容。
+     * 放不进一个数组的对象只能通过 locate 流式读取。
+     */
+    byte[] readAt(int i) {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offsetAt(i));
+            long length = readVarint(in);
+            if (length > Integer.MAX_VALUE - 8) {
+                throw error("Object %s is too large to read into memory.", idAt(i));
+            }
+            byte[] data = new byte[(int) length];
+            in.readFully(data);
+            return data;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 把 IDS 对应的对象写成一个新的 pack 和索引。
+     * 两个文件都先写到临时文件再原子地改名，索引最后出现，
+     * 因此读者要么看不到这个 pack，要么看到完整的 pack。
+     * 临时文件名各不相同，同时进行的多个 repack 不会互相覆盖。
+     * 能 locate 的对象直接从磁盘拷贝，不读进内存。
+     *
+     * @param source 按 id 提供对象内容
+     * @return 新的 pack 文件
+     */
+    public static File write(File packDir, List<String> ids, ObjectSource source) {
+        String[] sorted = ids.stream().distinct().sorted().toArray(String[]::new);
+        packDir.mkdirs();
+        File tmpPack = createTempFile(packDir, "tmp-pack-");
+        long[] offsets = new long[sorted.length];
+        try (FileOutputStream file = new FileOutputStream(tmpPack);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.length);
+            long position = 12;
+            for (int i = 0; i < sorted.length; i++) {
+                offsets[i] = position;
+                ObjectStore.Slice slice = source.locate(sorted[i]);
+                if (slice == null) {
+                    byte[] data = source.read(sorted[i]);
+                    position += writeVarint(out, data.length) + data.length;
+                    out.write(data);
+                    continue;
+                }
+                position += writeVarint(out, slice.length()) + slice.length();
+                out.flush();
+                try (FileChannel in = FileChannel.open(slice.file().toPath())) {
+                    long done = 0;
+                    while (done < slice.length()) {
+                        done += in.transferTo(slice.offset() + done, slice.length() - done,
+                                file.getChannel());
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String name = "pack-" + sha1(String.join("", sorted));
+        File packFile = join(packDir, name + ".pack");
+        File idxFile = join(packDir, name + ".idx");
+        writeAtomically(tmpPack, packFile);
+        File tmpIdx = createTempFile(packDir, "tmp-idx-");
+        writeContents(tmpIdx, (Object) encodeIndex(sorted, offsets));
+        writeAtomically(tmpIdx, idxFile);
+        return packFile;
+    }
+
+    private static byte[] encodeIndex(String[] sorted, long[] offsets) {
+        ByteBuffer buf = ByteBuffer.allocate(IDS_OFFSET + sorted.length * (ID_BYTES + 8));
+        buf.putInt(IDX_MAGIC).putInt(VERSION);
+        int[] fanout = new int[256];
+        for (String id : sorted) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        int sum = 0;
+        for (int f : fanout) {
+            sum += f;
+            buf.putInt(sum);
+        }
+        for (String id : sorted) {
+            buf.put(hexToBytes(id));
+        }
+        Arrays.stream(offsets).forEach(buf::putLong);
+        return buf.array();
+    }
+
+    private static File createTempFile(File dir, String prefix) {
+        try {
+            return Files.createTempFile(dir.toPath(), prefix, "").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void writeAtomically(File tmp, File target) {
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return 写出的字节数
+     */
+    static int writeVarint(OutputStream out, long value) throws IOException {
+        int n = 1;
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+            n++;
+        }
+        out.write((int) value);
+        return n;
+    }
+
+    private static long readVarint(RandomAccessFile in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 按 id 提供对象内容，写 pack 时使用
+     */
+    interface ObjectSource {
+        /**
+         * @return 对象在磁盘上的位置，可以直接拷贝；内容需要转换时返回 null
+         */
+        ObjectStore.Slice locate(String id);
+
+        /**
+         * @return 对象的内容，locate 返回 null 时使用
+         */
+        byte[] read(String id);
+    }
+}
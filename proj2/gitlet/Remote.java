@@ -2,13 +2,12 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 
-import static gitlet.Merge.findAllAncestors;
-import static gitlet.Repository.OBJECTS_DIR;
 import static gitlet.Utils.*;
 
 /**
@@ -16,7 +15,9 @@ import static gitlet.Utils.*;
  *
  * @author SouvLithe
  */
-public class Remote implements Serializable {
+public class Remote implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = -6823964499975837003L;
+
     /**
      * KEY is the name of the remote
      * VALUE is the path of the remote
@@ -28,35 +29,50 @@ public class Remote implements Serializable {
     }
 
     /**
-     * 将给定分支中的所有新对象移动到目标分支
-     * 从包含该分支的存储库移动到目标存储库
+     * 把 WANT 及其祖先中 TARGET 仓库还没有的 commit、tree 和 blob 从 SOURCE 仓库复制过去。
+     * <p>
+     * 协商: 从 WANT 开始遍历 SOURCE 的 commit 图，遇到 TARGET 已有的 commit 就停下。
+     * SOURCE 有位图索引时，遍历到带位图的 commit 直接并入它的位图，
+     * 再减去 TARGET 各个分支（SOURCE 也有的那些）的可达位图，
+     * 即 "从 WANT 可达但从这些分支不可达" 的对象，最后去掉 TARGET 已经有的对象。
+     * 只有缺少的对象被复制，对象较多时打成一个 pack 一次写入。
+     * 对象复制完之后才更新 TARGET 的 commit 图。
      */
-    private static void moveObjects(File sourceObjectDir, File targetObjectDir,
-                                    Branch branch, Set<String> ancestors) {
-        String branchHEAD = branch.getHEADAsString();
-        for (String commit : ancestors) {
-            moveObject(sourceObjectDir, targetObjectDir, commit);
-            HelperMethods.toCommit(commit, targetObjectDir)
-                    .getBlobs().values()
-                    .forEach(objID -> moveObject(sourceObjectDir, targetObjectDir, objID));
-            if (commit.equals(branchHEAD)) {
-                break;
+    private static void transfer(File sourceRepo, File targetRepo, String want) {
+        CommitGraph sourceGraph = CommitGraph.of(sourceRepo);
+        CommitGraph targetGraph = CommitGraph.of(targetRepo);
+        ObjectStore source = ObjectStore.of(join(sourceRepo, "objects"));
+        ObjectStore target = ObjectStore.of(join(targetRepo, "objects"));
+        List<String> haves = new ArrayList<>();
+        for (String head : Branch.heads(join(targetRepo, "refs", "heads"))) {
+            if (sourceGraph.indexOf(head) >= 0 || source.contains(head)) {
+                haves.add(head);
             }
         }
-    }
-
-    /**
-     * 将对象（一个提交记录或一个数据块）从源仓库移动到目标仓库*
-     *
-     * @param id 要移动的对象的标识符
-     */
-    private static void moveObject(File sourceObjectDir, File targetObjectDir, String id) {
-        String dir = id.substring(0, 2);
-        String name = id.substring(2);
-        File targetDir = join(targetObjectDir, dir);
-        targetDir.mkdir();
-        File sourcePath = join(sourceObjectDir, dir, name);
-        writeContents(join(targetDir, name), readContents(sourcePath));
+        BitmapIndex index = BitmapIndex.of(sourceRepo);
+        BitmapIndex.Reach wanted = index.reach(List.of(want),
+                id -> targetGraph.indexOf(id) >= 0 || target.contains(id));
+        BitmapIndex.Reach had = index.reach(index.isEmpty() ? List.of() : haves);
+        List<String> commits = new ArrayList<>();
+        for (String id : wanted.commitsNotIn(had)) {
+            if (targetGraph.indexOf(id) < 0 && !target.contains(id)) {
+                commits.add(id);
+            }
+        }
+        List<String> objects = new ArrayList<>();
+        for (String id : wanted.objectsNotIn(had)) {
+            if (!target.contains(id)) {
+                objects.add(id);
+            }
+        }
+        List<String> missing = new ArrayList<>(commits);
+        missing.addAll(objects);
+        long bytes = target.receive(missing, source);
+        targetGraph.require(want);
+        if (System.getenv("GITLET_TRANSFER_STATS") != null) {
+            System.err.printf("transfer: %d commits, %d objects, %d bytes%n",
+                    commits.size(), objects.size(), bytes);
+        }
     }
 
     /**
@@ -70,16 +86,8 @@ public class Remote implements Serializable {
         if (branch == null) {
             HelperMethods.exit("That remote does not have that branch.");
         }
-        // 拿到所有在远程活跃分支中的 commit
-        File sourceObjectsDir = join(sourceRepo, "objects");
-        Commit sourceHEAD = HelperMethods.toCommit(
-                readObject(join(sourceRepo, "HEAD"), Branch.class).getHEADAsString(),
-                sourceObjectsDir);
-        Set<String> ancestors = new LinkedHashSet<>();
-        findAllAncestors(sourceHEAD, ancestors);
-
-        //把这些 commit 移动到当前repo，fetch 它
-        moveObjects(sourceObjectsDir, OBJECTS_DIR, branch, ancestors);
+        // 把远程分支上本地还没有的 commit 移动到当前repo，fetch 它
+        transfer(sourceRepo, Repository.GITLET_DIR, branch.getHEADAsString());
         String branchName = remoteName + "/" + branch;
         Branch nb;
         if (!Branch.isExists(branchName)) {
@@ -88,7 +96,7 @@ public class Remote implements Serializable {
             nb = Branch.readBranch(branchName);
             nb.setHEADContent(branch.getHEADAsString());
         }
-        writeObject(join(Repository.BRANCHES_DIR, nb.toString()), nb);
+        Codec.writeObject(join(Repository.BRANCHES_DIR, nb.toString()), nb);
     }
 
     /**
@@ -98,16 +106,15 @@ public class Remote implements Serializable {
     public void push(String remoteName, Branch branch) {
         // 拿到所有的 commit 在当前活跃的分支中
         File target = remotes.get(remoteName);
-        Set<String> ancestors = new LinkedHashSet<>();
         Commit currentHEAD = HelperMethods.readHEADAsCommit();
-        findAllAncestors(currentHEAD, ancestors);
+        CommitGraph graph = CommitGraph.local();
         String branchHEAD = branch.getHEADAsString();
-        if (!ancestors.contains(branchHEAD)) {
+        if (!graph.isAncestor(branchHEAD, currentHEAD.getUid())) {
             HelperMethods.exit("Please pull down remote changes before pushing.");
         }
 
-        // 移动这些 commit push 到远程的仓库，
-        moveObjects(OBJECTS_DIR, join(target, "objects"), branch, ancestors);
+        // 把远程仓库还没有的 commit push 过去
+        transfer(Repository.GITLET_DIR, target, currentHEAD.getUid());
         HelperMethods.setHEAD(currentHEAD, HelperMethods.readHEADAsBranch(), target);
     }
 
@@ -154,6 +161,34 @@ public class Remote implements Serializable {
      * 序列化 remote 对象
      */
     public void save() {
-        Utils.writeObject(Repository.REMOTES, this);
+        Codec.writeObject(Repository.REMOTES, this);
+    }
+
+    @Override
+    public int type() {
+        return Codec.REMOTE;
+    }
+
+    /**
+     * count | (name | path)*
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        Map<String, File> sorted = new TreeMap<>(remotes);
+        out.writeVarint(sorted.size());
+        sorted.forEach((name, path) -> {
+            out.writeString(name);
+            out.writeString(path.getPath());
+        });
+    }
+
+    static Remote decode(Codec.Reader in) {
+        Remote ret = new Remote();
+        int n = in.readVarint();
+        for (int i = 0; i < n; i++) {
+            String name = in.readString();
+            ret.remotes.put(name, new File(in.readString()));
+        }
+        return ret;
     }
 }
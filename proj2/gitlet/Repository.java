@@ -2,6 +2,9 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static gitlet.Utils.*;
@@ -13,9 +16,16 @@ import static gitlet.Utils.*;
  * <br>├── refs/
  * <br>│ ├── commits
  * <br>│ ├── heads/
+ * <br>│ ├── messages
  * <br>│ └── remotes/
  * <br>├── objects/
+ * <br>│ ├── xx/
+ * <br>│ ├── info/
+ * <br>│ │ ├── commit-graph
+ * <br>│ │ └── bitmaps
+ * <br>│ └── pack/
  * <br>├── HEAD
+ * <br>├── config
  * <br>└── index
  *
  * @author SouvLithe
@@ -42,13 +52,20 @@ public class Repository implements Serializable {
     public static final File BRANCHES_DIR = join(REFS_DIR, "heads");
 
     /**
-     * The commits file contains all commits' id.
+     * The commits file contains all commits' id,
+     * as an append-only journal, see CommitJournal.
      */
     public static final File COMMITS = join(REFS_DIR, "commits");
     public static final File REMOTES = join(REFS_DIR, "remotes");
 
     /**
-     * 存blobs 和 commits的目录
+     * commit 信息的索引，see MessageIndex.
+     */
+    public static final File MESSAGES = join(REFS_DIR, "messages");
+
+    /**
+     * 存 blobs、trees 和 commits的目录，
+     * 松散对象在 objects/xx/ 下，打包后的对象在 objects/pack/ 下
      */
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
 
@@ -62,6 +79,16 @@ public class Repository implements Serializable {
      */
     public static final File INDEX = join(GITLET_DIR, "index");
 
+    /**
+     * 大 index 的增量改动，see Index.
+     */
+    public static final File INDEX_JOURNAL = join(GITLET_DIR, "index.journal");
+
+    /**
+     * 仓库的配置项，see Config.
+     */
+    public static final File CONFIG = join(GITLET_DIR, "config");
+
     /**
      * 在当前目录中创建一个新的 Gitlet 版本控制系统。
      */
@@ -69,47 +96,124 @@ public class Repository implements Serializable {
         List<File> dirs = List.of(GITLET_DIR, REFS_DIR, OBJECTS_DIR, BRANCHES_DIR);
         dirs.forEach(File::mkdir);
         Branch head = new Branch("master", "");
-        writeObject(HEAD, head);
+        Codec.writeObject(HEAD, head);
         head.updateBranch();
-        writeObject(INDEX, new Index());
-        writeObject(REMOTES, new Remote());
-        writeContents(COMMITS, "");
+        Codec.writeObject(INDEX, new Index());
+        Codec.writeObject(REMOTES, new Remote());
+        CommitJournal.create();
     }
 
     /**
-     * 删除 DIR 中的所有文件
+     * 把用 java 序列化写入的仓库迁移到 Codec 的二进制格式。
+     * HEAD、分支、index、remotes 以及所有对象都会被重写。
      */
-    public static void clean(File dir) {
-        List<String> files = plainFilenamesIn(dir);
-        if (files != null) {
-            files.forEach(file -> join(dir, file).delete());
+    public static void migrate() {
+        Codec.writeObject(HEAD, HelperMethods.readHEADAsBranch());
+        List<String> branches = plainFilenamesIn(BRANCHES_DIR);
+        if (branches != null) {
+            for (String b : branches) {
+                File f = join(BRANCHES_DIR, b);
+                Codec.writeObject(f, Codec.readObject(f, Branch.class));
+            }
         }
+        HelperMethods.readStagingArea().writeFull();
+        Codec.writeObject(REMOTES, HelperMethods.readRemotes());
+        ObjectStore.local().migrate();
+    }
+
+    /**
+     * @return FILE 相对于工作目录的路径，分隔符统一为 /
+     */
+    public static String relativePath(File file) {
+        Path p = CWD.toPath().toAbsolutePath().normalize()
+                .relativize(file.toPath().toAbsolutePath().normalize());
+        return p.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return 相对路径 PATH 是否是 .gitlet 或在其中
+     */
+    public static boolean isGitletPath(String path) {
+        return path.equals(".gitlet") || path.startsWith(".gitlet/");
+    }
+
+    /**
+     * @return 相对路径 PATH 在工作目录中对应的文件
+     */
+    public static File workingFile(String path) {
+        return join(CWD, path.replace('/', File.separatorChar));
+    }
+
+    /**
+     * @return 工作目录中所有普通文件的相对路径，包括子目录中的文件，不包括 .gitlet，按路径排序
+     */
+    public static List<String> workingFiles() {
+        return workingFiles(CWD);
     }
 
     /**
-     * 获取一个 commit 对象或一个 blob 对象的目录信息，
-     * 同时提供其前两个标识符。
+     * @return 工作目录下 DIR 中所有普通文件的相对路径（相对于工作目录），按路径排序。
+     * daemon 启用了 Watcher 时直接使用它维护的文件列表
      */
-    public static File getObjectsDir(String id) {
-        return join(OBJECTS_DIR, id.substring(0, 2));
+    public static List<String> workingFiles(File dir) {
+        String path = relativePath(dir);
+        List<String> watched = Watcher.files(path.isEmpty() ? "" : path + "/");
+        return watched != null ? watched : scanWorkingFiles(dir);
     }
 
     /**
-     * 获取 commit 对象或 blob 对象的文件名，
-     * 同时附带其最后 38 位的标识符。
+     * @return 遍历 DIR 得到的所有普通文件的相对路径，按路径排序
      */
-    public static String getObjectName(String id) {
-        return id.substring(2);
+    static List<String> scanWorkingFiles(File dir) {
+        List<String> ret = new ArrayList<>();
+        String path = relativePath(dir);
+        listFiles(dir, path.isEmpty() ? "" : path + "/", ret);
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static void listFiles(File dir, String prefix, List<String> into) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            // 按相对路径判断，`add .` 传进来的目录是 <cwd>/.，直接比较 File 认不出 .gitlet
+            String path = prefix + child.getName();
+            if (isGitletPath(path)) {
+                continue;
+            }
+            if (child.isFile()) {
+                into.add(path);
+            } else if (child.isDirectory()) {
+                listFiles(child, path + "/", into);
+            }
+        }
     }
 
     /**
-     * 获取某个 commit 对象或某个 blob 对象的文件路径
-     * （该对象具有其对应的 ID）。
+     * 删除工作目录中的文件 FILE，以及因此变空的上级目录。
+     * 同 Utils.restrictedDelete，拒绝删除工作目录之外的文件
      */
-    public static File makeObjectDir(String id) {
-        File out = getObjectsDir(id);
-        out.mkdir();
-        return join(out, getObjectName(id));
+    public static void deleteWorkingFile(File file) {
+        String path = relativePath(file);
+        if (path.isEmpty() || path.equals("..") || path.startsWith("../")
+                || isGitletPath(path)) {
+            throw new IllegalArgumentException("not in the gitlet working directory");
+        }
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        Watcher.changed(file);
+        File root = CWD.getAbsoluteFile();
+        for (File dir = file.getAbsoluteFile().getParentFile();
+             dir != null && !dir.equals(root); dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
     }
 
     /**
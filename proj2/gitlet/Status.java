@@ -3,13 +3,13 @@ package gitlet;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import static gitlet.HelperMethods.readHEADAsCommit;
 import static gitlet.HelperMethods.readStagingArea;
-import static gitlet.Utils.join;
 import static gitlet.Utils.plainFilenamesIn;
 
 /**
@@ -31,7 +31,7 @@ public class Status {
         printFilenames("\n=== Staged Files ===", idx.getAddedFilenames());
         printFilenames("\n=== Removed Files ===", idx.getRemovedFilenames());
         printFilenames("\n=== Modifications Not Staged For Commit ===",
-                getModifiedButNotStagedFilesNames());
+                getModifiedButNotStagedFilesNames(idx));
         printFilenames("\n=== Untracked Files ===", getUntrackedFilesNames());
         System.out.println();
     }
@@ -46,8 +46,13 @@ public class Status {
         }
     }
 
+    /**
+     * 集合中的文件名按字典序打印
+     */
     private static void printFilenames(String msg, Set<String> names) {
-        printFilenames(msg, new ArrayList<>(names));
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        printFilenames(msg, sorted);
     }
 
     /**
@@ -76,47 +81,40 @@ public class Status {
      * <br>并未进行移除操作，
      * 而是在当前提交中进行了记录，并从工作目录中删除了。
      */
-    private static Set<String> getModifiedButNotStagedFilesNames() {
-        Index judge = readStagingArea();
+    private static Set<String> getModifiedButNotStagedFilesNames(Index judge) {
         Set<String> ret = new HashSet<>();
         Commit h = readHEADAsCommit();
-        for (String filePath : h.getBlobs().keySet()) {
-            File file = join(filePath);
-            String fileName = file.getName();
-            boolean exists = file.exists();
+        // 文件是否存在由工作区的文件列表判断，daemon 启用了 Watcher 时不必访问文件系统
+        Set<String> present = new HashSet<>(Repository.workingFiles());
+        h.getBlobs().forEach((fileName, id) -> {
+            File file = Repository.workingFile(fileName);
+            boolean exists = present.contains(fileName);
             boolean staged = judge.isStaged(file);
             boolean removed = judge.isRemoved(file);
-            boolean tracked = judge.isTracked(file, h);
-            boolean modified = Index.isModified(file, h);
-            if (!exists && (staged || (!removed && tracked))) {
+            boolean modified = exists && !judge.blobId(file).equals(id);
+            if (!exists && (staged || !removed)) {
                 ret.add(fileName + " (deleted)");
-            } else if (exists && modified && (tracked || staged)) {
+            } else if (modified) {
                 ret.add(fileName + " (modified)");
             }
-        }
+        });
         return ret;
     }
 
     /**
-     * 工作目录中存在但既未准备添加也未被跟踪的文件。
+     * 工作目录中存在但既未准备添加也未被跟踪的文件，包括子目录中的文件。
      * 这包括那些曾被准备移除但之后在 Gitlet 不知情的情况下又被重新创建的文件。*
      *
-     * @return 未跟踪的文件名，如果模式不正确则返回空集。
+     * @return 未跟踪的文件的相对路径
      */
     public static Set<String> getUntrackedFilesNames() {
         Set<String> ret = new HashSet<>();
         Commit currentCommit = HelperMethods.readHEADAsCommit();
-        List<String> files = plainFilenamesIn(Repository.CWD);
-//        if (files != null) { 1st_test 这里也有问题
-        if (files == null) {
-            return ret;
-        }
         Index index = readStagingArea();
-        for (String file : files) {
-            File f = join(Repository.CWD, file);
-            boolean flag = index.isTracked(f, currentCommit);
+        for (String file : Repository.workingFiles()) {
+            boolean flag = index.isTracked(Repository.workingFile(file), currentCommit);
             if (!flag) {
-                ret.add(f.getName());
+                ret.add(file);
             }
         }
         return ret;
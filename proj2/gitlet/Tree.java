@@ -0,0 +1,507 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * 表示一个 gitlet tree 对象: 一个目录的快照。
+ * <p>
+ * 每一项是目录中的一个名字，以及对应文件的 blob id 或子目录的 tree id，按名字排序。
+ * tree 的 id 是它的编码的 SHA-1，内容相同的目录总是得到同一个 id，
+ * 所以一次 commit 只需要重写改动过的文件所在的目录及其上级目录，
+ * 其余的子目录直接沿用父 commit 的 tree；比较两个 commit 时，id 相同的子目录整个跳过。
+ * <p>
+ * 路径都是相对于工作目录的，分隔符为 /。每个名字只保存在它所在目录的 tree 中，
+ * 解码时经过 String.intern，同一个目录的各个版本共用同一个名字字符串。
+ * commit 的文件快照（见 View）直接建立在 tree 上，不会复制成每个 commit 一份的路径表。
+ * <p>
+ * 分块保存的文件（见 ChunkedBlob）在 tree 中单独标记，除了 walk 会给出它的各块之外，
+ * 与其他文件没有区别。
+ *
+ * @author SouvLithe
+ */
+public class Tree implements Serializable, Codec.Encodable {
+    private static final long serialVersionUID = -3318563730587145522L;
+
+    private static final Tree EMPTY = new Tree(new String[0], new String[0], new boolean[0],
+            new boolean[0]);
+
+    /**
+     * 编码中每一项的类型
+     */
+    private static final int FILE = 0;
+    private static final int DIR = 1;
+    private static final int CHUNKED_FILE = 2;
+
+    /**
+     * 按名字排序的各项
+     */
+    private final String[] names;
+    private final String[] ids;
+
+    /**
+     * 每一项是否是子目录
+     */
+    private final boolean[] trees;
+
+    /**
+     * 每一项是否是分块保存的文件
+     */
+    private final boolean[] chunked;
+
+    private Tree(String[] names, String[] ids, boolean[] trees, boolean[] chunked) {
+        this.names = names;
+        this.ids = ids;
+        this.trees = trees;
+        this.chunked = chunked;
+    }
+
+    /**
+     * 两个 commit 之间改变的一个文件
+     */
+    interface Change {
+        /**
+         * @param path  文件的相对路径
+         * @param oldId 改变前的 blob id，原来不存在时为 null
+         * @param newId 改变后的 blob id，被删除时为 null
+         */
+        void changed(String path, String oldId, String newId);
+    }
+
+    /**
+     * 一项的内容: 子目录或文件，以及它的 id
+     */
+    private record Entry(boolean tree, boolean chunked, String id) {
+    }
+
+    private static Tree of(TreeMap<String, Entry> entries) {
+        int n = entries.size();
+        String[] names = new String[n];
+        String[] ids = new String[n];
+        boolean[] trees = new boolean[n];
+        boolean[] chunked = new boolean[n];
+        int i = 0;
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            names[i] = e.getKey();
+            ids[i] = e.getValue().id();
+            trees[i] = e.getValue().tree();
+            chunked[i] = e.getValue().chunked();
+            i++;
+        }
+        return new Tree(names, ids, trees, chunked);
+    }
+
+    private TreeMap<String, Entry> entries() {
+        TreeMap<String, Entry> ret = new TreeMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ret.put(names[i], new Entry(trees[i], chunked[i], ids[i]));
+        }
+        return ret;
+    }
+
+    /**
+     * @return 名字为 NAME 的项的下标，不存在时返回负数
+     */
+    private int find(String name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    /**
+     * 从 OBJECTSDIR 中读取 id 为 ID 的 tree
+     */
+    static Tree read(String id, File objectsDir) {
+        Tree ret = HelperMethods.toTree(id, objectsDir);
+        if (ret == null) {
+            throw error("Missing tree %s.", id);
+        }
+        return ret;
+    }
+
+    /**
+     * 把这个 tree 写入 STORE，已经存在时不再写入
+     *
+     * @return tree 的 id
+     */
+    private String write(ObjectStore store) {
+        byte[] data = Codec.encode(this);
+        String id = sha1((Object) data);
+        if (!store.contains(id)) {
+            store.write(id, data);
+        }
+        return id;
+    }
+
+    /**
+     * 在 tree ROOT 上应用 CHANGES（相对路径 -> blob id，id 为 null 表示删除），
+     * 新的 tree 写入 OBJECTSDIR。只有含有改动的目录被重写，其余的子目录沿用原来的 id。
+     *
+     * @param root 原来的根 tree，为 null 时从空目录开始
+     * @return 新的根 tree 的 id
+     */
+    static String apply(String root, Map<String, String> changes, File objectsDir) {
+        ObjectStore store = ObjectStore.of(objectsDir);
+        String ret = apply(root, "", changes, objectsDir, store);
+        return ret == null ? EMPTY.write(store) : ret;
+    }
+
+    /**
+     * 先删除，再处理子目录，最后加入文件。
+     * 同名的文件和目录不能同时存在: 目录中还有文件时不能换成同名文件，反之亦然，
+     * 这时要先删除原来的文件（或目录中的所有文件），否则退出并提示。
+     *
+     * @param prefix ID 对应目录的相对路径，根目录为 ""，其他以 / 结尾
+     * @return 新的 tree 的 id，目录变空时返回 null
+     */
+    private static String apply(String id, String prefix, Map<String, String> changes,
+                                File objectsDir, ObjectStore store) {
+        TreeMap<String, Entry> entries = id == null ? new TreeMap<>()
+                : read(id, objectsDir).entries();
+        Map<String, String> files = new HashMap<>();
+        Map<String, Map<String, String>> dirs = new TreeMap<>();
+        changes.forEach((path, blob) -> {
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.put(path, blob);
+            } else {
+                dirs.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), blob);
+            }
+        });
+        files.forEach((name, blob) -> {
+            Entry old = entries.get(name);
+            if (blob == null && old != null && !old.tree()) {
+                entries.remove(name);
+            }
+        });
+        dirs.forEach((name, sub) -> {
+            Entry old = entries.get(name);
+            if (old != null && !old.tree()) {
+                exitOnCollision(prefix + name);
+            }
+            String subId = apply(old == null ? null : old.id(), prefix + name + "/", sub,
+                    objectsDir, store);
+            if (subId != null) {
+                entries.put(name, new Entry(true, false, subId));
+            } else {
+                entries.remove(name);
+            }
+        });
+        files.forEach((name, blob) -> {
+            if (blob == null) {
+                return;
+            }
+            Entry old = entries.get(name);
+            if (old != null && old.tree()) {
+                exitOnCollision(prefix + name);
+            }
+            entries.put(name, new Entry(false, ChunkedBlob.isChunked(store, blob), blob));
+        });
+        return entries.isEmpty() ? null : of(entries).write(store);
+    }
+
+    private static void exitOnCollision(String path) {
+        HelperMethods.exit(String.format("A file and a directory cannot both be named %s; "
+                + "remove the old one first.", path));
+    }
+
+    /**
+     * @return tree ROOT 中路径 PATH 的 blob id，不存在时返回 null。
+     * 只读取路径上的各级目录
+     */
+    static String lookup(String root, String path, File objectsDir) {
+        String id = root;
+        int start = 0;
+        while (true) {
+            int slash = path.indexOf('/', start);
+            Tree t = read(id, objectsDir);
+            int i = t.find(slash < 0 ? path.substring(start) : path.substring(start, slash));
+            if (i < 0) {
+                return null;
+            }
+            if (slash < 0) {
+                return t.trees[i] ? null : t.ids[i];
+            }
+            if (!t.trees[i]) {
+                return null;
+            }
+            id = t.ids[i];
+            start = slash + 1;
+        }
+    }
+
+    /**
+     * 把 tree ROOT 中的每个文件（相对路径, blob id）交给 ACTION
+     */
+    static void forEach(String root, File objectsDir, BiConsumer<String, String> action) {
+        forEach("", read(root, objectsDir), objectsDir, action);
+    }
+
+    private static void forEach(String prefix, Tree t, File objectsDir,
+                                BiConsumer<String, String> action) {
+        for (int i = 0; i < t.names.length; i++) {
+            if (t.trees[i]) {
+                forEach(prefix + t.names[i] + "/", read(t.ids[i], objectsDir), objectsDir,
+                        action);
+            } else {
+                action.accept(prefix + t.names[i], t.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * 把 tree A 和 tree B 之间改变的文件交给 OUT，id 相同的子目录不会被读取
+     */
+    static void diff(String a, String b, File objectsDir, Change out) {
+        if (!a.equals(b)) {
+            diff("", read(a, objectsDir), read(b, objectsDir), objectsDir, out);
+        }
+    }
+
+    private static void diff(String prefix, Tree a, Tree b, File objectsDir, Change out) {
+        int i = 0;
+        int j = 0;
+        while (i < a.names.length || j < b.names.length) {
+            int cmp = i == a.names.length ? 1
+                    : j == b.names.length ? -1 : a.names[i].compareTo(b.names[j]);
+            if (cmp < 0) {
+                removed(prefix + a.names[i], a.trees[i], a.ids[i], objectsDir, out);
+                i++;
+            } else if (cmp > 0) {
+                added(prefix + b.names[j], b.trees[j], b.ids[j], objectsDir, out);
+                j++;
+            } else {
+                String path = prefix + a.names[i];
+                if (a.trees[i] && b.trees[j]) {
+                    if (!a.ids[i].equals(b.ids[j])) {
+                        diff(path + "/", read(a.ids[i], objectsDir), read(b.ids[j], objectsDir),
+                                objectsDir, out);
+                    }
+                } else if (!a.trees[i] && !b.trees[j]) {
+                    if (!a.ids[i].equals(b.ids[j])) {
+                        out.changed(path, a.ids[i], b.ids[j]);
+                    }
+                } else {
+                    removed(path, a.trees[i], a.ids[i], objectsDir, out);
+                    added(path, b.trees[j], b.ids[j], objectsDir, out);
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private static void removed(String path, boolean tree, String id, File objectsDir,
+                                Change out) {
+        if (tree) {
+            forEach(path + "/", read(id, objectsDir), objectsDir,
+                    (p, blob) -> out.changed(p, blob, null));
+        } else {
+            out.changed(path, id, null);
+        }
+    }
+
+    private static void added(String path, boolean tree, String id, File objectsDir,
+                              Change out) {
+        if (tree) {
+            forEach(path + "/", read(id, objectsDir), objectsDir,
+                    (p, blob) -> out.changed(p, null, blob));
+        } else {
+            out.changed(path, null, id);
+        }
+    }
+
+    /**
+     * @return tree ROOT 的只读视图（相对路径 -> blob id），查找和遍历都直接读取 tree
+     */
+    static Map<String, String> view(String root, File objectsDir) {
+        return new View(root, objectsDir);
+    }
+
+    /**
+     * 一个 tree 的只读 Map 视图。
+     * get 和 containsKey 只读取路径上的各级目录，每级二分查找，
+     * 遍历按目录逐层展开，路径按 tree 的顺序给出。
+     * 子目录的 tree 来自 ObjectCache，共享子目录的 commit 也共享它们。
+     */
+    private static final class View extends AbstractMap<String, String> {
+        private final String root;
+        private final File objectsDir;
+        private int size = -1;
+
+        View(String root, File objectsDir) {
+            this.root = root;
+            this.objectsDir = objectsDir;
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String path ? lookup(root, path, objectsDir) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int[] n = {0};
+                Tree.forEach(root, objectsDir, (path, id) -> n[0]++);
+                size = n[0];
+            }
+            return size;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super String> action) {
+            Tree.forEach(root, objectsDir, action::accept);
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Walker(read(root, objectsDir), objectsDir);
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * 按深度优先的顺序逐个给出 tree 中的文件，每次只展开一个目录
+     */
+    private static final class Walker implements Iterator<Map.Entry<String, String>> {
+        private final File objectsDir;
+        private final Deque<Tree> trees = new ArrayDeque<>();
+        private final Deque<String> prefixes = new ArrayDeque<>();
+        private final Deque<int[]> positions = new ArrayDeque<>();
+        private Map.Entry<String, String> next;
+
+        Walker(Tree root, File objectsDir) {
+            this.objectsDir = objectsDir;
+            push("", root);
+            advance();
+        }
+
+        private void push(String prefix, Tree t) {
+            trees.push(t);
+            prefixes.push(prefix);
+            positions.push(new int[]{0});
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !trees.isEmpty()) {
+                Tree t = trees.peek();
+                int[] i = positions.peek();
+                if (i[0] == t.names.length) {
+                    trees.pop();
+                    prefixes.pop();
+                    positions.pop();
+                    continue;
+                }
+                int k = i[0]++;
+                String path = prefixes.peek() + t.names[k];
+                if (t.trees[k]) {
+                    push(path + "/", read(t.ids[k], objectsDir));
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>(path, t.ids[k]);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> ret = next;
+            advance();
+            return ret;
+        }
+    }
+
+    /**
+     * 遍历 tree ROOT 引用的所有 tree 和 blob，分块保存的文件之后紧跟着它的各块。
+     * ENTER 对某个 tree 返回 false 时不再展开它，已经见过的子目录因此只需要展开一次
+     */
+    static void walk(String root, File objectsDir, Predicate<String> enter,
+                     Consumer<String> blob) {
+        if (!enter.test(root)) {
+            return;
+        }
+        Tree t = read(root, objectsDir);
+        for (int i = 0; i < t.names.length; i++) {
+            if (t.trees[i]) {
+                walk(t.ids[i], objectsDir, enter, blob);
+            } else {
+                blob.accept(t.ids[i]);
+                if (t.chunked[i]) {
+                    ChunkedBlob.read(t.ids[i], objectsDir).chunks().forEach(blob);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int type() {
+        return Codec.TREE;
+    }
+
+    /**
+     * count | (类型 | name | id)*，类型为 FILE、DIR 或 CHUNKED_FILE
+     */
+    @Override
+    public void encode(Codec.Writer out) {
+        out.writeVarint(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeByte(trees[i] ? DIR : chunked[i] ? CHUNKED_FILE : FILE);
+            out.writeString(names[i]);
+            out.writeId(ids[i]);
+        }
+    }
+
+    static Tree decode(Codec.Reader in) {
+        int n = in.readVarint();
+        String[] names = new String[n];
+        String[] ids = new String[n];
+        boolean[] trees = new boolean[n];
+        boolean[] chunked = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int kind = in.readByte();
+            trees[i] = kind == DIR;
+            chunked[i] = kind == CHUNKED_FILE;
+            names[i] = in.readString().intern();
+            ids[i] = in.readId();
+        }
+        return new Tree(names, ids, trees, chunked);
+    }
+}
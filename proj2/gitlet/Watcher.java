@@ -0,0 +1,402 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * daemon 中的工作区监视器，由 `gitlet daemon --watch` 启用。
+ * <p>
+ * 用 WatchService 监视工作目录及其所有子目录（不包括 .gitlet），维护两样东西:
+ * 工作区中的文件列表，以及每个文件上次计算出的 blob id。
+ * 收到某个路径的事件后，它的 blob id 作废，路径进入 dirty 集合，
+ * 下次需要时才重新计算（仍然经过 index 的 stat 记录）。
+ * 这样 status、checkout 前的未跟踪文件检查、`add [directory]` 都不再遍历工作目录，
+ * 也只对 dirty 的路径访问文件系统。
+ * <p>
+ * 事件在每条命令第一次使用监视器时处理: 先在工作目录中创建一个 cookie 文件，
+ * 等到它的事件到达，这样在此之前发生的修改都已经在队列中了。
+ * 收到 OVERFLOW 事件、cookie 等待超时或注册目录失败时，丢弃全部记录，
+ * 下次使用时重新完整扫描一次；重新扫描时仍然无法注册所有目录（例如达到了 inotify 的数量上限），
+ * 监视器就此停用，之后的命令照常遍历工作目录。
+ * 本进程写入和删除的文件由 changed 直接标记为 dirty，不依赖事件到达的先后。
+ *
+ * @author SouvLithe
+ */
+public class Watcher {
+    private static final String COOKIE_PREFIX = ".gitlet-cookie-";
+
+    /**
+     * 等待 cookie 事件的最长时间
+     */
+    private static final long COOKIE_TIMEOUT_MS = 2000;
+
+    /**
+     * daemon 中启用的监视器，没有启用时为 null
+     */
+    private static Watcher active;
+
+    private final File root;
+    private final WatchService service;
+
+    /**
+     * 每个注册的目录，以及它相对于工作目录的前缀（根目录为 ""，其他以 / 结尾）
+     */
+    private final Map<WatchKey, String> keys = new HashMap<>();
+    private final Map<String, WatchKey> dirs = new HashMap<>();
+
+    /**
+     * 工作区中的文件，为 null 时需要完整扫描
+     */
+    private TreeSet<String> files;
+
+    /**
+     * 不在 dirty 中的文件上次计算出的 blob id
+     */
+    private final Map<String, String> blobIds = new HashMap<>();
+
+    /**
+     * 上次扫描或计算之后有过事件的文件
+     */
+    private final Set<String> dirty = new HashSet<>();
+
+    /**
+     * 本条命令中是否已经处理过事件
+     */
+    private boolean synced;
+    private int cookies;
+
+    private Watcher(File root) throws IOException {
+        this.root = root.getAbsoluteFile();
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * 在当前工作目录上启用监视器
+     */
+    static synchronized void start() {
+        try {
+            active = new Watcher(Repository.CWD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 停用监视器
+     */
+    static synchronized void stop() {
+        if (active != null) {
+            try {
+                active.service.close();
+            } catch (IOException excp) {
+                // 已经不再使用
+            }
+            active = null;
+        }
+    }
+
+    /**
+     * daemon 开始执行一条命令，之后第一次使用监视器时先处理积累的事件
+     */
+    static synchronized void beginCommand() {
+        if (active != null) {
+            active.synced = false;
+        }
+    }
+
+    /**
+     * @return 工作目录下相对路径以 PREFIX 开头的文件，按路径排序；没有启用监视器时返回 null
+     */
+    static synchronized List<String> files(String prefix) {
+        if (active == null) {
+            return null;
+        }
+        TreeSet<String> all = active.current();
+        if (all == null) {
+            return null;
+        }
+        if (prefix.isEmpty()) {
+            return new ArrayList<>(all);
+        }
+        return new ArrayList<>(all.subSet(prefix, prefix + Character.MAX_VALUE));
+    }
+
+    /**
+     * @return 文件 FILE 上次计算出的 blob id，之后没有变化过；否则返回 null
+     */
+    static synchronized String blobId(File file) {
+        if (active == null || active.current() == null) {
+            return null;
+        }
+        String path = Repository.relativePath(file);
+        return active.dirty.contains(path) ? null : active.blobIds.get(path);
+    }
+
+    /**
+     * 记下文件 FILE 的 blob id，它从 dirty 中移出
+     */
+    static synchronized void record(File file, String id) {
+        if (active == null || active.files == null) {
+            return;
+        }
+        String path = Repository.relativePath(file);
+        if (active.files.contains(path)) {
+            active.dirty.remove(path);
+            active.blobIds.put(path, id);
+        }
+    }
+
+    /**
+     * 本进程写入或删除了工作区中的文件 FILE
+     */
+    static synchronized void changed(File file) {
+        if (active == null || active.files == null) {
+            return;
+        }
+        String path = Repository.relativePath(file);
+        active.blobIds.remove(path);
+        if (file.isFile()) {
+            active.files.add(path);
+            active.dirty.add(path);
+            // 新建的目录也要注册，之后其中的修改才有事件
+            for (File dir = file.getAbsoluteFile().getParentFile();
+                 dir != null && !dir.equals(active.root); dir = dir.getParentFile()) {
+                if (!active.register(dir.toPath())) {
+                    active.files = null;
+                    return;
+                }
+            }
+        } else {
+            active.files.remove(path);
+            active.dirty.remove(path);
+        }
+    }
+
+    /**
+     * @return 处理过积累的事件之后的文件列表，监视器因此停用时返回 null
+     */
+    private TreeSet<String> current() {
+        if (files == null) {
+            rescan();
+        } else if (!synced) {
+            sync();
+        }
+        synced = true;
+        return active == this ? files : null;
+    }
+
+    /**
+     * 丢弃所有记录，重新注册所有目录并列出所有文件。
+     * 无法注册所有目录时停用监视器。
+     */
+    private void rescan() {
+        keys.keySet().forEach(WatchKey::cancel);
+        keys.clear();
+        dirs.clear();
+        blobIds.clear();
+        dirty.clear();
+        while (service.poll() != null) {
+            // 旧的事件已经没有意义
+        }
+        files = new TreeSet<>();
+        // 先注册再列出，列出的过程中发生的修改也会有事件
+        if (!registerAll(root.toPath())) {
+            files = null;
+            stop();
+            return;
+        }
+        for (String path : Repository.scanWorkingFiles(root)) {
+            if (!path.startsWith(COOKIE_PREFIX)) {
+                files.add(path);
+                dirty.add(path);
+            }
+        }
+    }
+
+    /**
+     * 写入一个 cookie 文件，处理它的事件之前的所有事件
+     */
+    private void sync() {
+        String cookie = COOKIE_PREFIX + ProcessHandle.current().pid() + "-" + (cookies++);
+        File file = join(root, cookie);
+        try {
+            Files.createFile(file.toPath());
+        } catch (IOException excp) {
+            rescan();
+            return;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COOKIE_TIMEOUT_MS);
+            while (true) {
+                long left = deadline - System.nanoTime();
+                WatchKey key = left <= 0 ? null : service.poll(left, TimeUnit.NANOSECONDS);
+                if (key == null) {
+                    rescan();
+                    return;
+                }
+                if (handle(key, cookie) && files != null) {
+                    // cookie 所在目录的 key 可能先于其他已经有事件的 key 出队，把它们也处理掉
+                    for (key = service.poll(); key != null && files != null; key = service.poll()) {
+                        handle(key, cookie);
+                    }
+                    if (files == null) {
+                        rescan();
+                    }
+                    return;
+                }
+                if (files == null) {
+                    rescan();
+                    return;
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            rescan();
+        } catch (ClosedWatchServiceException excp) {
+            files = null;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 处理 KEY 上的事件
+     *
+     * @return 是否看到了 COOKIE 的创建事件
+     */
+    private boolean handle(WatchKey key, String cookie) {
+        String prefix = keys.get(key);
+        boolean seen = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                files = null;
+                continue;
+            }
+            if (prefix == null || files == null) {
+                continue;
+            }
+            String name = event.context().toString();
+            if (name.startsWith(COOKIE_PREFIX) && prefix.isEmpty()) {
+                seen |= name.equals(cookie) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+                continue;
+            }
+            if (prefix.isEmpty() && name.equals(".gitlet")) {
+                continue;
+            }
+            String path = prefix + name;
+            File file = Repository.workingFile(path);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE || !file.exists()) {
+                removed(path);
+            } else if (file.isDirectory()) {
+                if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE) {
+                    // 目录中的修改由目录自己的事件报告
+                    continue;
+                }
+                if (!registerAll(file.toPath())) {
+                    files = null;
+                    continue;
+                }
+                for (String p : Repository.scanWorkingFiles(file)) {
+                    files.add(p);
+                    dirty.add(p);
+                    blobIds.remove(p);
+                }
+            } else {
+                files.add(path);
+                dirty.add(path);
+                blobIds.remove(path);
+            }
+        }
+        if (!key.reset() && prefix != null) {
+            // 目录已经不存在
+            keys.remove(key);
+            dirs.remove(prefix);
+        }
+        return seen;
+    }
+
+    /**
+     * 路径 PATH（文件或目录）被删除
+     */
+    private void removed(String path) {
+        files.remove(path);
+        dirty.remove(path);
+        blobIds.remove(path);
+        String dir = path + "/";
+        Iterator<String> it = files.subSet(dir, dir + Character.MAX_VALUE).iterator();
+        while (it.hasNext()) {
+            String p = it.next();
+            it.remove();
+            dirty.remove(p);
+            blobIds.remove(p);
+        }
+        for (Iterator<Map.Entry<String, WatchKey>> e = dirs.entrySet().iterator(); e.hasNext(); ) {
+            Map.Entry<String, WatchKey> d = e.next();
+            if (d.getKey().startsWith(dir)) {
+                d.getValue().cancel();
+                keys.remove(d.getValue());
+                e.remove();
+            }
+        }
+    }
+
+    /**
+     * 注册目录 DIR 及其所有子目录（不包括 .gitlet）
+     *
+     * @return 是否全部注册成功
+     */
+    private boolean registerAll(Path dir) {
+        if (!register(dir)) {
+            return false;
+        }
+        File[] children = dir.toFile().listFiles();
+        if (children == null) {
+            return true;
+        }
+        for (File child : children) {
+            if (child.isDirectory() && !child.getAbsoluteFile().equals(
+                    Repository.GITLET_DIR.getAbsoluteFile())) {
+                if (!registerAll(child.toPath())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean register(Path dir) {
+        String path = Repository.relativePath(dir.toFile());
+        String prefix = path.isEmpty() ? "" : path + "/";
+        if (dirs.containsKey(prefix)) {
+            return true;
+        }
+        try {
+            WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, prefix);
+            dirs.put(prefix, key);
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+}
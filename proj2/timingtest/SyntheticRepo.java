@@ -0,0 +1,198 @@
+package timingtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import gitlet.Daemon;
+import gitlet.Repository;
+
+/**
+ * 为计时测试生成的仓库: 在当前目录中执行 gitlet 命令生成 COMMITS 个 commit。
+ * <p>
+ * 工作区有 FILES 个文件，大小服从均值为 MEANSIZE 字节的指数分布；
+ * 每个 commit 改写约 5% 的文件。历史中有 BRANCHES 条分支，
+ * 每条分支与 master 各自提交若干次（改动的文件互不相同）后合并回 master。
+ * 命令在本进程中执行（同 daemon），当前目录必须是 Repository.CWD。
+ * <p>
+ * 生成前会清空当前目录，所以当前目录必须是新建的空目录，或者之前的计时测试用过的目录
+ * （其中有 MARKER 文件）；否则拒绝执行，以免在项目目录中运行时删掉源文件。
+ *
+ * @author SouvLithe
+ */
+public class SyntheticRepo {
+    /** 计时测试在它使用的目录中留下的标记文件，清空目录时保留 */
+    public static final String MARKER = ".gitlet-timing";
+
+    private final int commits;
+    private final int files;
+    private final int branches;
+    private final int meanSize;
+    private final Random random;
+    private int counter;
+
+    public SyntheticRepo(int commits, int files, int branches, int meanSize, long seed) {
+        this.commits = commits;
+        this.files = files;
+        this.branches = branches;
+        this.meanSize = meanSize;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 在本进程中执行一条 gitlet 命令，丢弃它的输出
+     */
+    public static void gitlet(String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        if (Daemon.run(args, out, err) != 0) {
+            throw new IllegalStateException(String.join(" ", args) + ": " + err);
+        }
+    }
+
+    /**
+     * 清空当前目录并生成仓库
+     */
+    public void generate() {
+        prepare(Repository.CWD);
+        gitlet("init");
+        for (int i = 0; i < files; i++) {
+            write(i);
+            gitlet("add", name(i));
+        }
+        gitlet("commit", "generate " + files + " files");
+        int made = 1;
+        int perBranch = Math.max(1, (commits - 1) / (branches * 2 + 1));
+        for (int b = 0; b < branches && made < commits; b++) {
+            gitlet("branch", "b" + b);
+            gitlet("checkout", "b" + b);
+            for (int k = 0; k < perBranch && made < commits; k++, made++) {
+                commit(0);
+            }
+            gitlet("checkout", "master");
+            for (int k = 0; k < perBranch && made < commits; k++, made++) {
+                commit(1);
+            }
+            gitlet("merge", "b" + b);
+            made++;
+        }
+        while (made < commits) {
+            commit(-1);
+            made++;
+        }
+    }
+
+    /**
+     * 改写约 5% 的文件并提交。PARITY 为 0 或 1 时只改写下标为偶数或奇数的文件
+     */
+    public void commit(int parity) {
+        int n = Math.max(1, files / 20);
+        for (int k = 0; k < n; k++) {
+            int i = random.nextInt(files);
+            if (parity >= 0 && i % 2 != parity) {
+                i = (i + 1) % files;
+            }
+            write(i);
+            gitlet("add", name(i));
+        }
+        gitlet("commit", "commit " + (counter++));
+    }
+
+    public int files() {
+        return files;
+    }
+
+    public static String name(int i) {
+        return String.format("f%05d.txt", i);
+    }
+
+    /**
+     * 用随机内容改写第 I 个文件
+     */
+    public void write(int i) {
+        int size = (int) Math.max(1, -Math.log(1 - random.nextDouble()) * meanSize);
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            sb.append("line ").append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        try {
+            Files.write(new File(Repository.CWD, name(i)).toPath(),
+                    sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 准备好计时测试使用的目录 DIR: 不存在时创建，否则清空，并写入 MARKER。
+     * DIR 不为空又没有 MARKER 时说明它不是计时测试创建的，抛出 IllegalStateException。
+     */
+    public static void prepare(File dir) {
+        File marker = new File(dir, MARKER);
+        String[] children = dir.list();
+        if (children != null && children.length > 0 && !marker.isFile()) {
+            throw new IllegalStateException(dir + " is not empty and was not created by a "
+                    + "timing test; run with -Duser.dir set to a new or empty directory.");
+        }
+        clean(dir);
+        try {
+            Files.createDirectories(dir.toPath());
+            Files.write(marker.toPath(), new byte[0]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 删除 DIR 中除 MARKER 以外的所有文件和目录（保留 DIR 本身）。
+     * 只应对 prepare 检查过的目录调用
+     */
+    public static void clean(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.getName().equals(MARKER)) {
+                delete(child.toPath());
+            }
+        }
+    }
+
+    public static void delete(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * 把目录 FROM 复制为 TO，TO 已存在时先删除
+     */
+    public static void copy(Path from, Path to) {
+        delete(to);
+        try (Stream<Path> walk = Files.walk(from)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                Path target = to.resolve(from.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
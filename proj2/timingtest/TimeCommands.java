@@ -0,0 +1,176 @@
+package timingtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import gitlet.Repository;
+
+/**
+ * gitlet 命令的计时测试:
+ * <br>java -Duser.dir=DIR timingtest.TimeCommands [commits] [files] [branches] [meanSize] [reps]
+ * <p>
+ * 先在 DIR 中用 SyntheticRepo 生成仓库（DIR 会被清空，见 SyntheticRepo.prepare），再在同一个进程中
+ * 把每条命令执行 reps 次，报告每秒执行的次数以及每次读写的字节数。
+ * 命令在热的 JVM 中执行，与 daemon 模式的开销相当；每次执行前的准备工作不计时。
+ * 字节数取自 /proc/self/io 的 rchar 和 wchar，只统计 read/write 系统调用，
+ * 不包括通过 mmap 读取的内容，其他系统上显示为 -1。
+ * <p>
+ * fetch 和 push 使用 DIR 旁边的 DIR-remote 目录作为远程仓库，它同样必须是新的、空的
+ * 或者计时测试用过的目录。
+ *
+ * @author SouvLithe
+ */
+public class TimeCommands {
+    private record Row(String command, int ops, double time, long read, long written) {
+    }
+
+    private static void printTimingTable(List<Row> rows) {
+        System.out.printf("%12s %8s %12s %12s %14s %14s\n", "command", "# ops", "time (s)",
+                "ops/sec", "KB read/op", "KB written/op");
+        System.out.printf("------------------------------------------------------------"
+                + "------------------------\n");
+        for (Row r : rows) {
+            System.out.printf("%12s %8d %12.3f %12.1f %14.1f %14.1f\n", r.command(), r.ops(),
+                    r.time(), r.ops() / r.time(), perOp(r.read(), r.ops()),
+                    perOp(r.written(), r.ops()));
+        }
+    }
+
+    private static double perOp(long bytes, int ops) {
+        return bytes < 0 ? -1 : bytes / 1024.0 / ops;
+    }
+
+    /**
+     * 每次执行命令前的准备工作，不计时
+     */
+    private interface Setup {
+        void run(int i);
+    }
+
+    private static final List<Row> ROWS = new ArrayList<>();
+    private static int reps;
+
+    public static void main(String[] args) {
+        int commits = arg(args, 0, 200);
+        int files = arg(args, 1, 200);
+        int branches = arg(args, 2, 4);
+        int meanSize = arg(args, 3, 2048);
+        reps = arg(args, 4, 20);
+        SyntheticRepo repo = new SyntheticRepo(commits, files, branches, meanSize, 42);
+        long start = System.nanoTime();
+        repo.generate();
+        System.out.printf("generated %d commits over %d files in %.1f s\n\n", commits, files,
+                (System.nanoTime() - start) / 1e9);
+
+        time("add", i -> repo.write(i % files), i -> new String[]{"add",
+            SyntheticRepo.name(i % files)});
+        time("commit", i -> {
+            repo.write(i % files);
+            SyntheticRepo.gitlet("add", SyntheticRepo.name(i % files));
+        }, i -> new String[]{"commit", "timed commit " + i});
+        time("status", null, i -> new String[]{"status"});
+        time("log", null, i -> new String[]{"log"});
+        time("global-log", null, i -> new String[]{"global-log"});
+        time("find", null, i -> new String[]{"find", "commit 1"});
+
+        SyntheticRepo.gitlet("branch", "side");
+        SyntheticRepo.gitlet("checkout", "side");
+        repo.commit(0);
+        SyntheticRepo.gitlet("checkout", "master");
+        time("checkout", null, i -> new String[]{"checkout", i % 2 == 0 ? "side" : "master"});
+        if (reps % 2 == 1) {
+            SyntheticRepo.gitlet("checkout", "master");
+        }
+
+        time("merge", i -> {
+            SyntheticRepo.gitlet("branch", "m" + i);
+            SyntheticRepo.gitlet("checkout", "m" + i);
+            repo.commit(0);
+            SyntheticRepo.gitlet("checkout", "master");
+            repo.commit(1);
+        }, i -> new String[]{"merge", "m" + i});
+
+        Path work = Repository.CWD.toPath();
+        Path remote = work.resolveSibling(work.getFileName() + "-remote");
+        SyntheticRepo.prepare(remote.toFile());
+        SyntheticRepo.copy(Repository.GITLET_DIR.toPath(), remote.resolve(".gitlet"));
+        String remoteGitlet = remote.resolve(".gitlet").toString();
+        SyntheticRepo.gitlet("add-remote", "bench", remoteGitlet);
+        time("push", i -> repo.commit(-1), i -> new String[]{"push", "bench", "master"});
+
+        // 远程仓库有 up 分支，本地删掉 fetch 得到的分支并 gc 之后再 fetch，每次都要传输对象
+        SyntheticRepo.gitlet("branch", "up");
+        SyntheticRepo.gitlet("checkout", "up");
+        for (int k = 0; k < 5; k++) {
+            repo.commit(-1);
+        }
+        SyntheticRepo.gitlet("checkout", "master");
+        SyntheticRepo.copy(Repository.GITLET_DIR.toPath(), remote.resolve(".gitlet"));
+        SyntheticRepo.gitlet("rm-branch", "up");
+        time("fetch", i -> {
+            if (i > 0) {
+                SyntheticRepo.gitlet("rm-branch", "bench_up");
+            }
+            SyntheticRepo.gitlet("gc", "--now");
+        }, i -> new String[]{"fetch", "bench", "up"});
+
+        printTimingTable(ROWS);
+    }
+
+    private static int arg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+
+    private interface Command {
+        String[] args(int i);
+    }
+
+    /**
+     * 把 COMMAND 执行 reps 次，每次执行前先执行 SETUP
+     */
+    private static void time(String name, Setup setup, Command command) {
+        double time = 0;
+        long read = 0;
+        long written = 0;
+        for (int i = 0; i < reps; i++) {
+            if (setup != null) {
+                setup.run(i);
+            }
+            long[] io = io();
+            long start = System.nanoTime();
+            SyntheticRepo.gitlet(command.args(i));
+            time += (System.nanoTime() - start) / 1e9;
+            long[] after = io();
+            read = io[0] < 0 ? -1 : read + after[0] - io[0];
+            written = io[1] < 0 ? -1 : written + after[1] - io[1];
+        }
+        ROWS.add(new Row(name, reps, time, read, written));
+    }
+
+    /**
+     * @return 本进程到目前为止读写的字节数，不支持时返回 -1
+     */
+    private static long[] io() {
+        long[] ret = {-1, -1};
+        File f = new File("/proc/self/io");
+        if (!f.exists()) {
+            return ret;
+        }
+        try {
+            for (String line : Files.readAllLines(f.toPath())) {
+                if (line.startsWith("rchar:")) {
+                    ret[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    ret[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException excp) {
+            return ret;
+        }
+        return ret;
+    }
+}
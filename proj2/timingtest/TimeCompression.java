@@ -0,0 +1,151 @@
+package timingtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import gitlet.Blob;
+import gitlet.Codec;
+import gitlet.Compression;
+import gitlet.ObjectStore;
+import gitlet.Repository;
+
+/**
+ * 对象压缩的计时测试:
+ * <br>java -Duser.dir=DIR timingtest.TimeCompression [对象个数] [平均大小]
+ * <p>
+ * 生成两组 blob: 类似源代码的文本（由固定的词表随机拼成）和随机字节（模拟图片等已压缩的内容），
+ * 每组分别用 none、lz 和 deflate 的几个级别写入 DIR 中一个新的对象库
+ * （DIR 会被清空，见 SyntheticRepo.prepare），
+ * 报告磁盘上的总字节数、每个对象的写入时间，以及读回并解码每个对象的时间。
+ * 随机字节不值得压缩，各种方法都应该原样保存，读取时间与 none 相同。
+ *
+ * @author SouvLithe
+ */
+public class TimeCompression {
+    private record Row(String data, String codec, long bytes, long raw, double write,
+                       double read) {
+    }
+
+    private static void printTimingTable(List<Row> rows) {
+        System.out.printf("%8s %10s %12s %8s %14s %14s\n", "data", "codec", "KiB on disk",
+                "ratio", "write us/obj", "read us/obj");
+        System.out.printf("------------------------------------------------------------"
+                + "--------------\n");
+        for (Row r : rows) {
+            System.out.printf("%8s %10s %12d %8.2f %14.1f %14.1f\n", r.data(), r.codec(),
+                    r.bytes() / 1024, (double) r.raw() / r.bytes(), r.write(), r.read());
+        }
+    }
+
+    private static final String[] CODECS = {"none", "lz", "deflate 1", "deflate 6",
+        "deflate 9"};
+
+    private static final String[] WORDS = {"public", "private", "static", "final", "void",
+        "int", "long", "String", "return", "if", "else", "for", "while", "new", "null",
+        "true", "false", "this", "throw", "try", "catch", "import", "class", "extends",
+        "List", "Map", "File", "get", "put", "size", "length", "equals", "=", "==", "!=",
+        "+=", "(", ")", "{", "}", ";", ".", ",", "<", ">", "0", "1", "i", "j", "n", "id",
+        "path", "blob", "commit", "tree", "index", "out", "in", "data", "buf", "ret"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int meanSize = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+        List<Row> rows = new ArrayList<>();
+        for (String data : new String[]{"text", "binary"}) {
+            List<File> files = generate(data, count, meanSize);
+            // 先跑一遍预热 JIT，不计入结果
+            for (String codec : CODECS) {
+                time(data, codec, files);
+                SyntheticRepo.delete(objectsDir(codec).toPath());
+            }
+            for (String codec : CODECS) {
+                rows.add(time(data, codec, files));
+            }
+        }
+        SyntheticRepo.clean(Repository.CWD);
+        printTimingTable(rows);
+    }
+
+    /**
+     * 在 DIR/input 中生成 COUNT 个文件
+     */
+    private static List<File> generate(String data, int count, int meanSize) {
+        SyntheticRepo.prepare(Repository.CWD);
+        File dir = new File(Repository.CWD, "input");
+        dir.mkdirs();
+        Random random = new Random(count);
+        List<File> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int size = (int) Math.max(1, -Math.log(1 - random.nextDouble()) * meanSize);
+            byte[] content = new byte[size];
+            if (data.equals("binary")) {
+                random.nextBytes(content);
+            } else {
+                StringBuilder sb = new StringBuilder(size + 16);
+                while (sb.length() < size) {
+                    sb.append("    ".repeat(random.nextInt(4)));
+                    for (int w = random.nextInt(8); w >= 0; w--) {
+                        sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                    }
+                    sb.append('\n');
+                }
+                byte[] text = sb.toString().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(text, 0, content, 0, size);
+            }
+            File f = new File(dir, "f" + i);
+            try {
+                Files.write(f.toPath(), content);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            ret.add(f);
+        }
+        return ret;
+    }
+
+    private static File objectsDir(String codec) {
+        return new File(Repository.CWD, "objects-" + codec.replace(' ', '-'));
+    }
+
+    /**
+     * 用 CODEC 把 FILES 写入一个新的对象库再逐个读回
+     */
+    private static Row time(String data, String codec, List<File> files) {
+        String[] parts = codec.split(" ");
+        System.setProperty("gitlet." + Compression.CODEC, parts[0]);
+        System.setProperty("gitlet." + Compression.LEVEL, parts.length > 1 ? parts[1] : "6");
+        File objects = objectsDir(codec);
+        objects.mkdirs();
+        ObjectStore store = ObjectStore.of(objects);
+
+        List<String> ids = new ArrayList<>();
+        long raw = 0;
+        long start = System.nanoTime();
+        for (File f : files) {
+            String id = Blob.getBlobName(f);
+            store.write(id, Blob.header(id, f.length()), f, 0, f.length());
+            ids.add(id);
+            raw += f.length();
+        }
+        double write = (System.nanoTime() - start) / 1e3 / files.size();
+
+        long bytes = 0;
+        for (String id : ids) {
+            bytes += store.locate(id).length();
+        }
+
+        start = System.nanoTime();
+        for (String id : ids) {
+            Codec.decode(store.read(id), Blob.class).getContent();
+        }
+        double read = (System.nanoTime() - start) / 1e3 / ids.size();
+        System.clearProperty("gitlet." + Compression.CODEC);
+        System.clearProperty("gitlet." + Compression.LEVEL);
+        return new Row(data, codec, bytes, raw, write, read);
+    }
+}
@@ -0,0 +1,77 @@
+package timingtest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import gitlet.Diff;
+
+/**
+ * Diff 的计时测试: java timingtest.TimeDiff [最大行数]
+ * <p>
+ * 生成 N 行的随机文本，分别测两种情况:
+ * 少量修改（约 1% 的行被改写、插入或删除），走 Myers 算法；
+ * 大量修改（约一半的行被改写），D 超过上限后走 patience diff。
+ * 两种情况下每行的耗时都应该随 N 基本不变。
+ *
+ * @author SouvLithe
+ */
+public class TimeDiff {
+    private static void printTimingTable(String title, int[] ns, double[] times, int[] changes) {
+        System.out.println(title);
+        System.out.printf("%12s %12s %12s %12s\n", "N", "time (s)", "# changes", "microsec/line");
+        System.out.printf("------------------------------------------------------------\n");
+        for (int i = 0; i < ns.length; i += 1) {
+            double timePerLine = times[i] / ns[i] * 1e6;
+            System.out.printf("%12d %12.2f %12d %12.2f\n", ns[i], times[i], changes[i],
+                    timePerLine);
+        }
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        timeDiff("few changes (1%)", max, 0.01);
+        timeDiff("many changes (50%)", max, 0.5);
+    }
+
+    private static void timeDiff(String title, int max, double rate) {
+        int rows = Integer.numberOfTrailingZeros(Integer.highestOneBit(max / 1000)) + 1;
+        int[] ns = new int[rows];
+        double[] times = new double[rows];
+        int[] changes = new int[rows];
+        int n = 1000;
+        for (int i = 0; i < rows; i++) {
+            Random random = new Random(n);
+            byte[] a = text(random, n, 0, null);
+            byte[] b = text(new Random(n), n, rate, random);
+            Diff.Text ta = Diff.Text.of(a);
+            Diff.Text tb = Diff.Text.of(b);
+            long start = System.nanoTime();
+            ns[i] = n;
+            changes[i] = Diff.changes(ta, tb).size();
+            times[i] = (System.nanoTime() - start) / 1e9;
+            n = n * 2;
+        }
+        printTimingTable(title, ns, times, changes);
+    }
+
+    /**
+     * @return N 行随机文本。EDITS 不为 null 时以 RATE 的概率改写、插入或删除一行
+     */
+    private static byte[] text(Random lines, int n, double rate, Random edits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(n * 24);
+        for (int i = 0; i < n; i++) {
+            String line = "line " + Long.toHexString(lines.nextLong()) + "\n";
+            if (edits != null && edits.nextDouble() < rate) {
+                switch (edits.nextInt(3)) {
+                    case 0 -> line = "changed " + Long.toHexString(edits.nextLong()) + "\n";
+                    case 1 -> line = "inserted " + edits.nextInt() + "\n" + line;
+                    default -> line = "";
+                }
+            }
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+}
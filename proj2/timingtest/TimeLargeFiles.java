@@ -0,0 +1,138 @@
+package timingtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import gitlet.Repository;
+
+/**
+ * 大文件的计时测试:
+ * <br>java -Xmx64m -Duser.dir=DIR timingtest.TimeLargeFiles [最大 MiB]
+ * <p>
+ * 文件大小从 16 MiB 开始每次翻倍，直到给定的上限（默认 256 MiB）。
+ * 每种大小都在清空的 DIR 中新建仓库（DIR 的要求见 SyntheticRepo.prepare），测量 add 一个随机内容的文件、
+ * 在文件末尾追加一行后再次 add 并 commit 新增的对象字节数、删掉文件后 checkout 的耗时，
+ * 以及这些命令执行期间的堆内存峰值。
+ * 大文件切块保存（见 ChunkedBlob），堆内存峰值应该不随文件大小增长，
+ * 第二个版本只需要保存改动的那一块。
+ * 加上 -Dgitlet.blob.chunkThreshold=2147483647 可以与不切块的情况对比。
+ *
+ * @author SouvLithe
+ */
+public class TimeLargeFiles {
+    private static void printTimingTable(int[] sizes, double[] adds, double[] checkouts,
+                                         double[] heaps, long[] stored) {
+        System.out.printf("%10s %10s %14s %14s %16s\n", "MiB", "add (s)", "checkout (s)",
+                "peak heap MiB", "KiB for append");
+        System.out.printf("------------------------------------------------------------"
+                + "--------------\n");
+        for (int i = 0; i < sizes.length; i += 1) {
+            System.out.printf("%10d %10.2f %14.2f %14.1f %16d\n", sizes[i], adds[i],
+                    checkouts[i], heaps[i], stored[i] / 1024);
+        }
+    }
+
+    private static final String NAME = "large.bin";
+
+    public static void main(String[] args) {
+        int max = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int rows = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.max(max, 16) / 16))
+                + 1;
+        int[] sizes = new int[rows];
+        double[] adds = new double[rows];
+        double[] checkouts = new double[rows];
+        double[] heaps = new double[rows];
+        long[] stored = new long[rows];
+        File file = new File(Repository.CWD, NAME);
+        int size = 16;
+        for (int i = 0; i < rows; i++) {
+            sizes[i] = size;
+            SyntheticRepo.prepare(Repository.CWD);
+            SyntheticRepo.gitlet("init");
+            write(file, (long) size << 20, size);
+            resetPeak();
+            long start = System.nanoTime();
+            SyntheticRepo.gitlet("add", NAME);
+            adds[i] = (System.nanoTime() - start) / 1e9;
+            SyntheticRepo.gitlet("commit", "add " + NAME);
+
+            append(file, "appended line\n");
+            long before = bytesIn(Repository.OBJECTS_DIR.toPath());
+            SyntheticRepo.gitlet("add", NAME);
+            SyntheticRepo.gitlet("commit", "append to " + NAME);
+            stored[i] = bytesIn(Repository.OBJECTS_DIR.toPath()) - before;
+
+            file.delete();
+            start = System.nanoTime();
+            SyntheticRepo.gitlet("checkout", "--", NAME);
+            checkouts[i] = (System.nanoTime() - start) / 1e9;
+            heaps[i] = peak() / (double) (1 << 20);
+            size *= 2;
+        }
+        SyntheticRepo.clean(Repository.CWD);
+        printTimingTable(sizes, adds, checkouts, heaps, stored);
+    }
+
+    /**
+     * 把 LENGTH 字节的随机内容写入 FILE，每次写 1 MiB
+     */
+    private static void write(File file, long length, long seed) {
+        Random random = new Random(seed);
+        byte[] buf = new byte[1 << 20];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long done = 0; done < length; done += buf.length) {
+                random.nextBytes(buf);
+                out.write(buf, 0, (int) Math.min(buf.length, length - done));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void append(File file, String line) {
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return DIR 中所有文件的字节数
+     */
+    private static long bytesIn(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP).toList();
+    }
+
+    private static void resetPeak() {
+        System.gc();
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    /**
+     * @return 上次 resetPeak 以来各个堆内存池的峰值之和（字节）
+     */
+    private static long peak() {
+        return heapPools().stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum();
+    }
+}